@@ -0,0 +1,199 @@
+package my_classes;
+
+/**
+ * Streaming autocorrelation over a sliding window of samples, used to estimate the period of a gesture along
+ * with how strongly periodic it is.
+ * <p>
+ * For every lag up to maxLag a running sum of lagged products is kept. Each new sample adds its products with
+ * the previous maxLag samples and removes the products of the sample leaving the window, so an update costs
+ * O(maxLag) whatever the window length. Samples are quantised to fixed point and the sums kept in longs, which
+ * makes the add and remove exact so the sums never drift.
+ */
+public class AutocorrelationPeriodEstimator {
+
+    static final float QUANTISATION = 4096f;              //steps per unit, about 2.4e-4 resolution
+    static final int QUANTISED_MAX = (1 << 19) - 1;       //clamp at +-128 so the sums stay well inside a long
+    static final double MIN_VARIANCE = 1e-6 * QUANTISATION * QUANTISATION;
+    static final float PEAK_THRESHOLD = 0.9f;
+
+    final int windowLen;
+    final int minLag;
+    final int maxLag;
+
+    final int[] window;             //quantised samples
+    int writePos;                   //position of the oldest sample once the window is full
+    int count;
+
+    long sum;
+    final long[] lagSums;           //lagSums[k] is the sum of x[n] * x[n - k] over the window
+    final float[] correlation;      //normalised autocorrelation from the last call to findPeriod
+
+    float periodLag;
+    float confidence;
+
+    /**
+     * @param windowLen the number of samples in the window.
+     * @param minLag    the shortest lag in samples that can be reported as a period.
+     * @param maxLag    the longest lag in samples that can be reported as a period, less than windowLen.
+     */
+    public AutocorrelationPeriodEstimator(int windowLen, int minLag, int maxLag) {
+        if (maxLag >= windowLen || minLag < 1 || minLag > maxLag) {
+            throw new IllegalArgumentException("Need 1 <= minLag <= maxLag < windowLen");
+        }
+        this.windowLen = windowLen;
+        this.minLag = minLag;
+        this.maxLag = maxLag;
+        window = new int[windowLen];
+        lagSums = new long[maxLag + 1];
+        correlation = new float[maxLag + 1];
+    }
+
+    public void addSample(float value) {
+        int q = Math.round(value * QUANTISATION);
+        if (q > QUANTISED_MAX) q = QUANTISED_MAX;
+        else if (q < -QUANTISED_MAX) q = -QUANTISED_MAX;
+        if (count == windowLen) {
+            //remove the products of the oldest sample with the samples that followed it
+            long oldest = window[writePos];
+            int readPos = writePos;
+            for (int k = 0; k <= maxLag; k++) {
+                lagSums[k] -= oldest * window[readPos];
+                if (++readPos == windowLen) readPos = 0;
+            }
+            sum -= oldest;
+        } else {
+            count++;
+        }
+        window[writePos] = q;
+        sum += q;
+        //add the products of the newest sample with the samples that preceded it
+        long newest = q;
+        int readPos = writePos;
+        int numLags = Math.min(maxLag, count - 1);
+        for (int k = 0; k <= numLags; k++) {
+            lagSums[k] += newest * window[readPos];
+            if (--readPos < 0) readPos = windowLen - 1;
+        }
+        if (++writePos == windowLen) writePos = 0;
+    }
+
+    /**
+     * Normalises the lag sums and picks the period, refined with parabolic interpolation. Each lag is normalised
+     * by the energy of the two overlapping parts of the window, so the correlation is in [-1, 1] at every lag.
+     * Past the first negative lobe the first local peak within PEAK_THRESHOLD of the highest one is taken, which
+     * stops multiples of the period from winning. Costs O(maxLag). Read the results with
+     * {@link #getPeriodLag()} and {@link #getConfidence()}.
+     */
+    public void findPeriod() {
+        periodLag = 0;
+        confidence = 0;
+        if (count <= maxLag) {
+            return;
+        }
+        double mean = sum / (double) count;
+        if (lagSums[0] / (double) count - mean * mean <= MIN_VARIANCE) {
+            return;
+        }
+        //the overlap at lag k drops the k oldest samples from one side and the k newest from the other
+        int oldPos = writePos - count;
+        if (oldPos < 0) oldPos += windowLen;
+        int newPos = writePos == 0 ? windowLen - 1 : writePos - 1;
+        long oldSum = 0, oldSq = 0, newSum = 0, newSq = 0;
+        for (int k = 1; k <= maxLag; k++) {
+            long old = window[oldPos];
+            long young = window[newPos];
+            oldSum += old;
+            oldSq += old * old;
+            newSum += young;
+            newSq += young * young;
+            if (++oldPos == windowLen) oldPos = 0;
+            if (--newPos < 0) newPos = windowLen - 1;
+            int n = count - k;
+            double lateSum = sum - oldSum;
+            double earlySum = sum - newSum;
+            double covariance = lagSums[k] - mean * (lateSum + earlySum) + n * mean * mean;
+            double lateVar = (lagSums[0] - oldSq) - 2 * mean * lateSum + n * mean * mean;
+            double earlyVar = (lagSums[0] - newSq) - 2 * mean * earlySum + n * mean * mean;
+            double norm = lateVar * earlyVar;
+            float r = norm > 0 ? (float) (covariance / Math.sqrt(norm)) : 0;
+            correlation[k] = r;
+        }
+        int bestLag = findPeakLag(correlation, minLag, maxLag);
+        if (bestLag < 0) {
+            return;
+        }
+        periodLag = refineLag(correlation, bestLag);
+        confidence = Math.min(correlation[bestLag], 1);
+    }
+
+    /**
+     * Past the first negative lobe of a normalised autocorrelation, finds the first local peak within
+     * PEAK_THRESHOLD of the highest one, which stops multiples of the period from winning.
+     *
+     * @return the lag of the peak, or -1 if there is none.
+     */
+    static int findPeakLag(float[] correlation, int minLag, int maxLag) {
+        float highest = 0;
+        boolean passedZero = false;
+        for (int k = 1; k <= maxLag; k++) {
+            float r = correlation[k];
+            if (!passedZero) {
+                passedZero = r < 0;
+            } else if (k >= minLag && r > highest) {
+                highest = r;
+            }
+        }
+        if (highest <= 0) {
+            return -1;
+        }
+        //first local peak near the highest
+        float threshold = highest * PEAK_THRESHOLD;
+        passedZero = false;
+        for (int k = 1; k < maxLag; k++) {
+            float r = correlation[k];
+            if (!passedZero) {
+                passedZero = r < 0;
+            } else if (k >= minLag && r >= threshold && r >= correlation[k - 1] && r > correlation[k + 1]) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the lag of a peak refined with parabolic interpolation through it and its neighbours.
+     */
+    static float refineLag(float[] correlation, int peakLag) {
+        float best = correlation[peakLag];
+        float before = correlation[peakLag - 1];
+        float after = correlation[peakLag + 1];
+        float curvature = before - 2 * best + after;
+        float lag = peakLag;
+        if (curvature < 0) {
+            lag += 0.5f * (before - after) / curvature;
+        }
+        return lag;
+    }
+
+    /**
+     * @return the period in samples from the last call to {@link #findPeriod()}, zero if there was no peak.
+     */
+    public float getPeriodLag() {
+        return periodLag;
+    }
+
+    /**
+     * @return the normalised autocorrelation at the period, from 0 for no periodicity to 1 for a perfectly
+     * repeating signal.
+     */
+    public float getConfidence() {
+        return confidence;
+    }
+
+    /**
+     * @return the mean of the squared samples in the window, zero while it is empty.
+     */
+    public float getMeanSquare() {
+        return count == 0 ? 0 : (float) (lagSums[0] / (double) count / (QUANTISATION * QUANTISATION));
+    }
+}
@@ -0,0 +1,37 @@
+package my_classes;
+
+import net.happybrackets.device.HB;
+import net.happybrackets.device.sensors.AccelerometerListener;
+import net.happybrackets.device.sensors.GyroscopeListener;
+
+/**
+ * A {@link SensorBlockBuffer} that can be hooked to a device's sensors, with {@link #listenToGyroscope(HB)} or
+ * {@link #listenToAccelerometer(HB)}.
+ */
+public abstract class BatchSensorListener extends SensorBlockBuffer {
+
+    /**
+     * @param blockSize the number of readings per block. At 50Hz, 5 readings is 100ms of extra latency.
+     */
+    public BatchSensorListener(int blockSize) {
+        super(blockSize);
+    }
+
+    public void listenToGyroscope(HB hb) {
+        new GyroscopeListener(hb) {
+            @Override
+            public void sensorUpdated(float x, float y, float z) {
+                BatchSensorListener.this.sensorUpdated(x, y, z);
+            }
+        };
+    }
+
+    public void listenToAccelerometer(HB hb) {
+        new AccelerometerListener(hb) {
+            @Override
+            public void sensorUpdated(float x, float y, float z) {
+                BatchSensorListener.this.sensorUpdated(x, y, z);
+            }
+        };
+    }
+}
@@ -0,0 +1,216 @@
+package my_classes;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Pulls this device's beats into phase with the other devices', where setting the clock interval to the shared
+ * period only makes them agree on tempo.
+ * <p>
+ * Each device that is locking broadcasts the time of each of its beats, in the synchronised time of
+ * {@link net.happybrackets.device.HB#getSynchTime()}, so the network latency does not matter as long as a beat
+ * arrives within half a beat. Devices that are not locking send nothing, since no one locks to them. At each
+ * local beat the phase error is the circular mean of the distances to the peers' beats heard since, within half
+ * a beat either way, positive when this device is behind. A PI controller turns that into a correction to take
+ * off the next beat's interval, clamped to MAX_CORRECTION of a beat, so every device moves towards the others
+ * and the integral absorbs any small tempo difference between them. A beat with no peer beats halves the
+ * correction, so it fades out if the others stop locking.
+ * <p>
+ * Beats are only heard once per audio block, so each error is out by up to a block either way. The reported
+ * error is smoothed over a few beats, and the lock counts as acquired once that has stayed within LOCK_TOLERANCE
+ * of a beat for LOCK_BEATS beats, with the peers' beats agreeing to within LOCK_COHERENCE. The time it took from
+ * the last loss of lock is kept as the convergence time.
+ * <p>
+ * Peer beats come in on a {@link SensorRing}, so {@link #peerBeatReceived} can be called from the broadcast
+ * thread while {@link #beat} runs wherever the clock is heard, e.g. in an HB pattern. The error, correction and
+ * lock state can be read from any thread.
+ */
+public class BeatPhaseLock implements SensorRing.Consumer {
+
+    public static final String ADDRESS = "/ymssp/beat";
+    public static final byte VERSION = 1;
+    public static final int BYTES = 14;
+
+    public static final float PROPORTIONAL_GAIN = 0.25f;
+    public static final float INTEGRAL_GAIN = 0.02f;
+    public static final float MAX_CORRECTION = 0.25f;   //of a beat
+    public static final float LOCK_TOLERANCE = 0.02f;   //of a beat
+    public static final int LOCK_BEATS = 4;
+    public static final float LOCK_COHERENCE = 0.9f;    //how closely the peers' beats must agree to lock to
+    public static final float ERROR_SMOOTHING = 0.25f;  //per beat, for the reported error and lock
+
+    static final int BEAT = 0;                          //ring record type
+    static final int RING_CAPACITY = 64;
+
+    final SensorRing ring = new SensorRing(RING_CAPACITY);
+    final int myIndex;
+
+    //outgoing beat messages, on the thread calling encodeBeat
+    final byte[] data = new byte[BYTES];
+    final ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+
+    //on the thread calling beat
+    long lastBeatTime;
+    float interval;
+    double errorSin, errorCos;          //sums over the peer beats heard this beat, of the error as an angle
+    int numPeerBeats;
+    float integral;
+    float smoothedError;
+    int beatsWithinTolerance;
+    long unlockedSince = -1;            //ms, -1 while not locking
+    boolean enabled;
+
+    volatile float phaseError;          //ms, positive when behind
+    volatile float correction;          //ms to take off the interval
+    volatile boolean locked;
+    volatile long convergenceTime = -1; //ms
+    volatile long numBeats;
+
+    /**
+     * @param myIndex this device's index, beats carrying it are ignored.
+     */
+    public BeatPhaseLock(int myIndex) {
+        this.myIndex = myIndex;
+    }
+
+    /**
+     * Packs the time of this device's beat for broadcasting to {@link #ADDRESS}. The array is reused by the next
+     * call, so only call it from one thread.
+     *
+     * @param locking whether this device is locking its phase, other devices only lock to those that are.
+     */
+    public byte[] encodeBeat(long beatTime, boolean locking) {
+        buffer.put(0, VERSION);
+        buffer.put(1, (byte) (locking ? 1 : 0));
+        buffer.putInt(2, myIndex);
+        buffer.putLong(6, beatTime);
+        return data;
+    }
+
+    /**
+     * Takes a beat message broadcast by another device. Call from one thread only, e.g. the broadcast thread.
+     *
+     * @return false if it was not a beat message, was from this device or from one not locking.
+     */
+    public boolean peerBeatReceived(byte[] message) {
+        if (message == null || message.length < BYTES || message[0] != VERSION || message[1] == 0) {
+            return false;
+        }
+        int device = PeerStateMessage.getInt(message, 2);
+        if (device == myIndex) {
+            return false;
+        }
+        long beatTime = (PeerStateMessage.getInt(message, 6) & 0xffffffffL)
+                | (long) PeerStateMessage.getInt(message, 10) << 32;
+        return ring.offer(BEAT, beatTime, device, 0, 0);
+    }
+
+    /**
+     * Call at each of this device's beats.
+     *
+     * @param beatTime      the time of the beat, in the synchronised ms the beat messages carry.
+     * @param clockInterval the interval, in ms, the clock would have without locking.
+     * @param enabled       whether to lock, with false the correction goes straight to zero.
+     * @return the interval to give the clock for the next beat.
+     */
+    public float beat(long beatTime, float clockInterval, boolean enabled) {
+        lastBeatTime = beatTime;
+        interval = clockInterval;
+        this.enabled = enabled;
+        errorSin = 0;
+        errorCos = 0;
+        numPeerBeats = 0;
+        ring.drain(this);
+        numBeats++;
+        if (!enabled || clockInterval <= 0) {
+            integral = 0;
+            correction = 0;
+            smoothedError = 0;
+            phaseError = 0;
+            locked = false;
+            beatsWithinTolerance = 0;
+            unlockedSince = -1;
+            return clockInterval;
+        }
+        if (unlockedSince < 0) {
+            unlockedSince = beatTime;
+        }
+        if (numPeerBeats == 0) {
+            //nobody heard this beat, ease off in case they have gone
+            integral *= 0.5f;
+            correction *= 0.5f;
+            return clockInterval - correction;
+        }
+        //circular mean, so peers either side of half a beat do not cancel out
+        float error = (float) (Math.atan2(errorSin, errorCos) / (2 * Math.PI) * clockInterval);
+        float coherence = (float) (Math.sqrt(errorSin * errorSin + errorCos * errorCos) / numPeerBeats);
+        smoothedError += (error - smoothedError) * ERROR_SMOOTHING;
+        phaseError = smoothedError;
+        integral += error * INTEGRAL_GAIN;
+        float maxCorrection = clockInterval * MAX_CORRECTION;
+        integral = Math.max(-maxCorrection, Math.min(maxCorrection, integral));
+        float c = Math.max(-maxCorrection, Math.min(maxCorrection, error * PROPORTIONAL_GAIN + integral));
+        correction = c;
+        if (Math.abs(smoothedError) <= clockInterval * LOCK_TOLERANCE && coherence >= LOCK_COHERENCE) {
+            if (++beatsWithinTolerance >= LOCK_BEATS && !locked) {
+                locked = true;
+                convergenceTime = beatTime - unlockedSince;
+            }
+        } else {
+            if (locked) {
+                unlockedSince = beatTime;
+            }
+            locked = false;
+            beatsWithinTolerance = 0;
+        }
+        return clockInterval - c;
+    }
+
+    @Override
+    public void readingReceived(int type, long peerBeatTime, float device, float y, float z) {
+        if (!enabled || interval <= 0) {
+            return;
+        }
+        double angle = (lastBeatTime - peerBeatTime) % interval / interval * 2 * Math.PI;
+        errorSin += Math.sin(angle);
+        errorCos += Math.cos(angle);
+        numPeerBeats++;
+    }
+
+    /**
+     * @return the phase error in ms, smoothed over the last few beats, positive when this device's beats come
+     * after the others'.
+     */
+    public float getPhaseError() {
+        return phaseError;
+    }
+
+    /**
+     * @return the ms currently taken off the clock interval.
+     */
+    public float getCorrection() {
+        return correction;
+    }
+
+    public boolean isLocked() {
+        return locked;
+    }
+
+    /**
+     * @return the ms from losing lock, or enabling, to the last time lock was acquired, or -1 if never locked.
+     */
+    public long getConvergenceTime() {
+        return convergenceTime;
+    }
+
+    public long getNumBeats() {
+        return numBeats;
+    }
+
+    /**
+     * @return the number of peer beats dropped because they were not taken up by {@link #beat} in time.
+     */
+    public long getNumDropped() {
+        return ring.getNumDropped();
+    }
+}
@@ -0,0 +1,271 @@
+package my_classes;
+
+import de.sciss.net.OSCListener;
+import de.sciss.net.OSCMessage;
+
+import java.net.SocketAddress;
+
+/**
+ * An {@link OSCListener} for {@link net.happybrackets.device.HB#addBroadcastListener} that hands each broadcast
+ * to the handler registered for its address, in place of a chain of equals and startsWith checks that builds
+ * the names to compare against on every message.
+ * <p>
+ * Addresses are registered up front. Indexed addresses such as "D_" match the prefix followed by the sender's
+ * device index, e.g. "D_3", and messages with this device's index are dropped as self without reaching the
+ * handler. Incoming names are looked up by hash in a small open addressed table, first whole and then up to
+ * and including the last '_', and compared in place against the registered address, so routing allocates
+ * nothing. Each route counts its messages, and {@link #updateRates(long)} turns the counts into messages per
+ * second for status reports.
+ * <p>
+ * Routes must all be added before the router is passed to HB. Handlers are called on the broadcast thread.
+ */
+public class BroadcastRouter implements OSCListener {
+
+    public interface FloatHandler {
+        void valueReceived(int sender, float value);
+    }
+
+    public interface BlobHandler {
+        void blobReceived(byte[] data);
+    }
+
+    public interface PeerStateHandler {
+        void peerStateReceived(PeerStateMessage message);
+    }
+
+    static final int TABLE_SIZE = 32;            //power of two, well over the number of routes
+    static final long RATE_WINDOW_NANOS = 1000000000L;
+
+    /**
+     * The handler and counts for one address.
+     */
+    public static class Route {
+        final String address;
+        final int hash;
+        final boolean indexed;
+        final FloatHandler floatHandler;
+        final BlobHandler blobHandler;
+        final PeerStateHandler peerStateHandler;
+        final PeerStateMessage peerState;       //decoded into on the broadcast thread, for peer state routes
+        volatile long numReceived, numSelf, numBad;
+        long rateCount, rateTime;
+        boolean rateStarted;
+        volatile float rate;
+
+        Route(String address, boolean indexed, FloatHandler floatHandler, BlobHandler blobHandler,
+              PeerStateHandler peerStateHandler) {
+            this.address = address;
+            this.hash = address.hashCode();
+            this.indexed = indexed;
+            this.floatHandler = floatHandler;
+            this.blobHandler = blobHandler;
+            this.peerStateHandler = peerStateHandler;
+            peerState = peerStateHandler != null ? new PeerStateMessage() : null;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        /**
+         * @return the number of messages passed to the handler.
+         */
+        public long getNumReceived() {
+            return numReceived;
+        }
+
+        /**
+         * @return the number of messages dropped because this device sent them.
+         */
+        public long getNumSelf() {
+            return numSelf;
+        }
+
+        /**
+         * @return the number of messages dropped because their arguments were not what the handler takes.
+         */
+        public long getNumBad() {
+            return numBad;
+        }
+
+        /**
+         * @return messages passed to the handler per second, as of the last {@link #updateRates(long)}.
+         */
+        public float getRate() {
+            return rate;
+        }
+    }
+
+    final int myIndex;
+    final Route[] table = new Route[TABLE_SIZE];
+    final Route[] routes = new Route[TABLE_SIZE];
+    int numRoutes;
+    volatile long numUnrouted;
+
+    /**
+     * @param myIndex this device's index, from {@link net.happybrackets.device.HB#myIndex()}.
+     */
+    public BroadcastRouter(int myIndex) {
+        this.myIndex = myIndex;
+    }
+
+    /**
+     * Routes messages named prefix + sender index, with a float argument, e.g. "D_" for "D_0", "D_1".
+     */
+    public Route addIndexedFloatRoute(String prefix, FloatHandler handler) {
+        return add(new Route(prefix, true, handler, null, null));
+    }
+
+    /**
+     * Routes messages named exactly address, with a byte array argument.
+     */
+    public Route addBlobRoute(String address, BlobHandler handler) {
+        return add(new Route(address, false, null, handler, null));
+    }
+
+    /**
+     * Routes {@link PeerStateMessage}s, decoding them and dropping those this device sent.
+     */
+    public Route addPeerStateRoute(PeerStateHandler handler) {
+        return add(new Route(PeerStateMessage.ADDRESS, false, null, null, handler));
+    }
+
+    private Route add(Route route) {
+        if (route.indexed && route.address.lastIndexOf('_') != route.address.length() - 1) {
+            throw new IllegalArgumentException("Indexed address must end in '_': " + route.address);
+        }
+        if (numRoutes >= TABLE_SIZE / 2) {
+            throw new IllegalStateException("Too many routes");
+        }
+        int slot = route.hash & (TABLE_SIZE - 1);
+        while (table[slot] != null) {
+            if (table[slot].address.equals(route.address)) {
+                throw new IllegalArgumentException("Address already routed: " + route.address);
+            }
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        table[slot] = route;
+        routes[numRoutes++] = route;
+        return route;
+    }
+
+    @Override
+    public void messageReceived(OSCMessage oscMessage, SocketAddress socketAddress, long time) {
+        String name = oscMessage.getName();
+        Route route = find(name, name.length(), name.hashCode(), false);
+        int keyLength = name.lastIndexOf('_') + 1;
+        if (route == null && keyLength > 0) {
+            //try the name up to and including the last '_' as an indexed address
+            int hash = 0;
+            for (int i = 0; i < keyLength; i++) {
+                hash = 31 * hash + name.charAt(i);
+            }
+            route = find(name, keyLength, hash, true);
+        }
+        if (route == null) {
+            numUnrouted++;
+            return;
+        }
+        Object arg = oscMessage.getArgCount() > 0 ? oscMessage.getArg(0) : null;
+        if (route.indexed) {
+            int sender = parseIndex(name, keyLength);
+            if (sender == myIndex) {
+                route.numSelf++;
+            } else if (sender < 0 || !(arg instanceof Number)) {
+                route.numBad++;
+            } else {
+                route.numReceived++;
+                route.floatHandler.valueReceived(sender, ((Number) arg).floatValue());
+            }
+        } else if (!(arg instanceof byte[])) {
+            route.numBad++;
+        } else if (route.peerState == null) {
+            route.numReceived++;
+            route.blobHandler.blobReceived((byte[]) arg);
+        } else if (!route.peerState.decode((byte[]) arg)) {
+            route.numBad++;
+        } else if (route.peerState.getDeviceId() == myIndex) {
+            route.numSelf++;
+        } else {
+            route.numReceived++;
+            route.peerStateHandler.peerStateReceived(route.peerState);
+        }
+    }
+
+    private Route find(String name, int keyLength, int hash, boolean indexed) {
+        for (int slot = hash & (TABLE_SIZE - 1); table[slot] != null; slot = (slot + 1) & (TABLE_SIZE - 1)) {
+            Route r = table[slot];
+            if (r.hash == hash && r.indexed == indexed && r.address.length() == keyLength
+                    && name.startsWith(r.address)) {
+                return r;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the non-negative int at the end of name from start, or -1 if there is none.
+     */
+    static int parseIndex(String name, int start) {
+        int length = name.length();
+        if (start >= length || length - start > 9) {
+            return -1;
+        }
+        int index = 0;
+        for (int i = start; i < length; i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            index = index * 10 + (c - '0');
+        }
+        return index;
+    }
+
+    /**
+     * Works out each route's rate from its count since the last call, if at least a second ago. Call it from
+     * one thread, e.g. wherever the status is reported.
+     */
+    public void updateRates(long nowNanos) {
+        for (int i = 0; i < numRoutes; i++) {
+            Route r = routes[i];
+            long elapsed = nowNanos - r.rateTime;
+            if (!r.rateStarted || elapsed >= RATE_WINDOW_NANOS) {
+                long count = r.numReceived;
+                if (r.rateStarted) {
+                    r.rate = (count - r.rateCount) * 1e9f / elapsed;
+                }
+                r.rateCount = count;
+                r.rateTime = nowNanos;
+                r.rateStarted = true;
+            }
+        }
+    }
+
+    public int getNumRoutes() {
+        return numRoutes;
+    }
+
+    public Route getRoute(int i) {
+        return routes[i];
+    }
+
+    /**
+     * @return the number of messages whose address had no route.
+     */
+    public long getNumUnrouted() {
+        return numUnrouted;
+    }
+
+    /**
+     * @return each route's rate, e.g. "D_=10.0/s P_=10.0/s", for status reports.
+     */
+    public String getRateReport() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < numRoutes; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(routes[i].address).append('=').append(String.format("%.1f", routes[i].rate)).append("/s");
+        }
+        return sb.toString();
+    }
+}
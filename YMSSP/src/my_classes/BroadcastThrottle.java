@@ -0,0 +1,122 @@
+package my_classes;
+
+/**
+ * Decides which feature updates are worth broadcasting to the other devices, so that traffic stays low however
+ * big the ensemble gets.
+ * <p>
+ * An update is sent if the period or deviation has moved more than its epsilon since the last one sent, if the
+ * deviation has turned this device irregular or regular again, judged with the same enter and exit thresholds as
+ * the other devices' {@link PeerTable}s use, or if the mode has changed, since those flip the other devices'
+ * modes, or if nothing has been sent for the heartbeat interval, so that peers know this device is still there.
+ * Nothing is sent within the minimum interval of the last send, and a change held back by that goes out at the
+ * next update after it, because changes are measured against what was last sent rather than the last update.
+ * Counts what was sent and why, and what was saved. Use it from one thread.
+ */
+public class BroadcastThrottle {
+
+    final float periodEpsilon;
+    final float deviationEpsilon;
+    final float enterThresh, exitThresh;
+    final long heartbeatNanos;
+    final long minIntervalNanos;
+
+    boolean sentAny;
+    long lastSentTime;
+    float lastSentPeriod, lastSentDeviation;
+    boolean lastSentIrregular;
+    GestureAnalyser.Mode lastSentMode;
+
+    long numChecked, numSent, numHeartbeats, numHeldBack;
+
+    /**
+     * @param periodEpsilon    the change in period, in ms, worth sending.
+     * @param deviationEpsilon the change in deviation worth sending.
+     * @param enterThresh      the deviation at which the other devices count this one as turning irregular.
+     * @param exitThresh       the deviation below which they count it as turning regular again.
+     * @param heartbeatNanos   the longest to go without sending, well under the peers' timeout.
+     * @param minIntervalNanos the shortest time between sends.
+     */
+    public BroadcastThrottle(float periodEpsilon, float deviationEpsilon, float enterThresh, float exitThresh,
+                             long heartbeatNanos, long minIntervalNanos) {
+        this.periodEpsilon = periodEpsilon;
+        this.deviationEpsilon = deviationEpsilon;
+        this.enterThresh = enterThresh;
+        this.exitThresh = exitThresh;
+        this.heartbeatNanos = heartbeatNanos;
+        this.minIntervalNanos = minIntervalNanos;
+    }
+
+    /**
+     * @return true if the features should be broadcast now, in which case they are taken as sent.
+     */
+    public boolean shouldSend(FeatureSnapshot snapshot, long nowNanos) {
+        numChecked++;
+        boolean irregular = lastSentIrregular
+                ? snapshot.deviation >= exitThresh
+                : snapshot.deviation >= enterThresh;
+        boolean changed = !sentAny
+                || snapshot.mode != lastSentMode
+                || Math.abs(snapshot.period - lastSentPeriod) > periodEpsilon
+                || Math.abs(snapshot.deviation - lastSentDeviation) > deviationEpsilon
+                || irregular != lastSentIrregular;
+        long sinceSent = nowNanos - lastSentTime;
+        boolean heartbeat = sentAny && sinceSent >= heartbeatNanos;
+        if (!changed && !heartbeat) {
+            return false;
+        }
+        if (sentAny && sinceSent < minIntervalNanos) {
+            numHeldBack++;
+            return false;
+        }
+        if (!changed) {
+            numHeartbeats++;
+        }
+        sentAny = true;
+        lastSentTime = nowNanos;
+        lastSentPeriod = snapshot.period;
+        lastSentDeviation = snapshot.deviation;
+        lastSentIrregular = irregular;
+        lastSentMode = snapshot.mode;
+        numSent++;
+        return true;
+    }
+
+    /**
+     * @return the number of updates checked.
+     */
+    public long getNumChecked() {
+        return numChecked;
+    }
+
+    public long getNumSent() {
+        return numSent;
+    }
+
+    /**
+     * @return the number of updates not sent.
+     */
+    public long getNumSaved() {
+        return numChecked - numSent;
+    }
+
+    /**
+     * @return the number sent only because the heartbeat was due.
+     */
+    public long getNumHeartbeats() {
+        return numHeartbeats;
+    }
+
+    /**
+     * @return the number of updates with a change that were not sent because of the minimum interval.
+     */
+    public long getNumHeldBack() {
+        return numHeldBack;
+    }
+
+    /**
+     * @return the fraction of updates not sent, 0 before any.
+     */
+    public float getSavedFraction() {
+        return numChecked == 0 ? 0 : getNumSaved() / (float) numChecked;
+    }
+}
@@ -0,0 +1,226 @@
+package my_classes;
+
+import de.sciss.net.OSCMessage;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Runs an ensemble of simulated devices in one JVM, in simulated time, to find how the ensemble logic scales
+ * without Pis or a network.
+ * <p>
+ * Each device runs what YMSSP3 and YMSSP4 run off HB: a {@link GestureAnalyser} fed 50Hz readings from its own
+ * {@link GyroSignalGenerator}, swinging for a regular player and shaking for an irregular one, a
+ * {@link BroadcastThrottle} and {@link PeerStateMessage} to publish its state, and a {@link BroadcastRouter} whose
+ * peer state route feeds the analyser's {@link PeerTable}. Messages go on a shared bus that delivers each one to
+ * every other device after a latency plus random jitter, or loses it.
+ * <p>
+ * The players change together every PHASE_SECONDS, cycling through all regular, half regular and all irregular,
+ * so every device has an expected mode. The time from each change until every device is in its expected mode is
+ * the consensus time, not counting the first phase, which the analysers start in. CPU is the time the simulation
+ * thread spends in the devices' analysis and messaging, per device, as a percentage of one core in real time.
+ * Prints CSV, one row per ensemble size.
+ * <p>
+ * Usage: EnsembleSimulator [devices,devices,...] [seconds] [latencyMS] [jitterMS] [lossFraction]
+ */
+public class EnsembleSimulator {
+
+    static final int SENSOR_RATE = 50;
+    static final long STEP_NANOS = 1000000000L / SENSOR_RATE;
+    static final int PHASE_SECONDS = 20;
+    static final float PERIOD_EPSILON = 10;
+    static final float DEVIATION_EPSILON = 0.05f;
+    static final long HEARTBEAT_NANOS = 1000000000L;
+    static final long MIN_BROADCAST_NANOS = 50000000L;
+    static final long SEED = 1;
+
+    enum Phase {
+        ALL_REGULAR, HALF_REGULAR, ALL_IRREGULAR
+    }
+
+    static class Device {
+        final int index;
+        final GestureAnalyser analyser;
+        final GyroSignalGenerator regular, irregular;
+        final BroadcastThrottle throttle;
+        final PeerStateMessage outgoing = new PeerStateMessage();
+        final BroadcastRouter router;
+        final float[] xyz = new float[3];
+        long now;
+        boolean isRegular;
+
+        Device(int index, Random rng) {
+            this.index = index;
+            analyser = new GestureAnalyser(GestureAnalyser.Mode.UNITY);
+            regular = new GyroSignalGenerator(GyroSignalGenerator.Shape.REGULAR, 20 + rng.nextFloat() * 10,
+                    rng.nextLong());
+            irregular = new GyroSignalGenerator(GyroSignalGenerator.Shape.SHAKING, 0, rng.nextLong());
+            ModeStateMachine modes = analyser.getModeMachine();
+            throttle = new BroadcastThrottle(PERIOD_EPSILON, DEVIATION_EPSILON, modes.getEnterThresh(),
+                    modes.getExitThresh(), HEARTBEAT_NANOS, MIN_BROADCAST_NANOS);
+            router = new BroadcastRouter(index);
+            router.addPeerStateRoute(new BroadcastRouter.PeerStateHandler() {
+                @Override
+                public void peerStateReceived(PeerStateMessage message) {
+                    analyser.peerStateReceived(message.getDeviceId(), message.getDeviation(), message.getPeriod(),
+                            now);
+                }
+            });
+        }
+
+        /**
+         * @return the expected mode, given how many of the ensemble are playing regularly.
+         */
+        GestureAnalyser.Mode expectedMode(int numRegular, int numDevices) {
+            int othersRegular = numRegular - (isRegular ? 1 : 0);
+            boolean othersIrregular = othersRegular < (numDevices - 1) * 0.5f;
+            if (isRegular) {
+                return othersIrregular ? GestureAnalyser.Mode.BASELINE : GestureAnalyser.Mode.UNITY;
+            }
+            return othersIrregular ? GestureAnalyser.Mode.DISJOINT : GestureAnalyser.Mode.SOLO;
+        }
+    }
+
+    /**
+     * The messages due at one step, in arrays reused from lap to lap of the wheel.
+     */
+    static class Slot {
+        int size;
+        int[] receivers = new int[64];
+        OSCMessage[] messages = new OSCMessage[64];
+
+        void add(int receiver, OSCMessage message) {
+            if (size == receivers.length) {
+                receivers = Arrays.copyOf(receivers, size * 2);
+                messages = Arrays.copyOf(messages, size * 2);
+            }
+            receivers[size] = receiver;
+            messages[size++] = message;
+        }
+    }
+
+    public static void main(String[] args) {
+        String[] sizes = (args.length > 0 ? args[0] : "10,50,200").split(",");
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 120;
+        double latencyMS = args.length > 2 ? Double.parseDouble(args[2]) : 5;
+        double jitterMS = args.length > 3 ? Double.parseDouble(args[3]) : 20;
+        double loss = args.length > 4 ? Double.parseDouble(args[4]) : 0.05;
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (!threadBean.isCurrentThreadCpuTimeSupported()) {
+            System.err.println("Thread CPU time not supported, CPU columns will read 0");
+        }
+        System.out.println("devices,seconds,cpuPercentPerDevice,analysisPercent,messagingPercent,sentPerSecond,"
+                + "deliveredPerSecond,lostPerSecond,consensusMedianMS,consensusMaxMS,phasesWithoutConsensus");
+        for (String size : sizes) {
+            run(Integer.parseInt(size.trim()), seconds, latencyMS, jitterMS, loss, threadBean);
+        }
+    }
+
+    static void run(int numDevices, int seconds, double latencyMS, double jitterMS, double loss,
+                    ThreadMXBean threadBean) {
+        Random rng = new Random(SEED);
+        Device[] devices = new Device[numDevices];
+        for (int i = 0; i < numDevices; i++) {
+            devices[i] = new Device(i, rng);
+        }
+        Slot[] wheel = new Slot[(int) ((latencyMS + jitterMS) * 1000000 / STEP_NANOS) + 2];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new Slot();
+        }
+        long numSteps = (long) seconds * SENSOR_RATE;
+        long stepsPerPhase = (long) PHASE_SECONDS * SENSOR_RATE;
+        long analysisNanos = 0, messagingNanos = 0;
+        long numSent = 0, numDelivered = 0, numLost = 0;
+        long[] consensusTimes = new long[(int) (numSteps / stepsPerPhase)];
+        int numPhases = 0, numConsensus = 0;
+        long phaseStart = 0;
+        boolean consensus = false;
+        int numRegular = 0;
+        for (long step = 0; step < numSteps; step++) {
+            long now = step * STEP_NANOS;
+            if (step % stepsPerPhase == 0) {
+                //the players change what they are doing
+                Phase phase = Phase.values()[(int) (step / stepsPerPhase) % Phase.values().length];
+                numRegular = phase == Phase.ALL_REGULAR ? numDevices
+                        : phase == Phase.HALF_REGULAR ? numDevices / 2 : 0;
+                for (int i = 0; i < numDevices; i++) {
+                    devices[i].isRegular = i < numRegular;
+                }
+                phaseStart = now;
+                //the analysers start in the first phase's mode, so only time the changes
+                consensus = step == 0;
+                if (step > 0) {
+                    numPhases++;
+                }
+            }
+            //deliver the messages due
+            long start = threadBean.getCurrentThreadCpuTime();
+            Slot slot = wheel[(int) (step % wheel.length)];
+            for (int i = 0; i < slot.size; i++) {
+                Device d = devices[slot.receivers[i]];
+                d.now = now;
+                d.router.messageReceived(slot.messages[i], null, now);
+                slot.messages[i] = null;
+            }
+            numDelivered += slot.size;
+            slot.size = 0;
+            messagingNanos += threadBean.getCurrentThreadCpuTime() - start;
+            //readings, generated outside the timing
+            for (Device d : devices) {
+                (d.isRegular ? d.regular : d.irregular).next(d.xyz);
+            }
+            start = threadBean.getCurrentThreadCpuTime();
+            boolean allExpected = true;
+            for (Device d : devices) {
+                d.now = now;
+                GestureAnalyser a = d.analyser;
+                if (a.gyroUpdated(d.xyz[0], d.xyz[1], d.xyz[2], now)) {
+                    FeatureSnapshot snapshot = new FeatureSnapshot(now, a.getCount(), a.getMode(),
+                            a.getSensorMagnitude(), a.getPeriod(), a.getIntegratedPeriod(), a.getPeriodStrength(),
+                            a.getDeviation(), 0, 0, 0);
+                    if (d.throttle.shouldSend(snapshot, now)) {
+                        long sendStart = threadBean.getCurrentThreadCpuTime();
+                        byte[] data = d.outgoing.encode(d.index, now / 1000000, snapshot).clone();
+                        OSCMessage message = new OSCMessage(PeerStateMessage.ADDRESS, new Object[]{data});
+                        numSent++;
+                        for (Device other : devices) {
+                            if (other == d) {
+                                continue;
+                            }
+                            if (rng.nextDouble() < loss) {
+                                numLost++;
+                                continue;
+                            }
+                            double delayMS = latencyMS + rng.nextDouble() * jitterMS;
+                            long due = step + 1 + (long) (delayMS * 1000000 / STEP_NANOS);
+                            wheel[(int) (due % wheel.length)].add(other.index, message);
+                        }
+                        //the bus is not the device's work
+                        start += threadBean.getCurrentThreadCpuTime() - sendStart;
+                    }
+                }
+                allExpected &= a.getMode() == d.expectedMode(numRegular, numDevices);
+            }
+            analysisNanos += threadBean.getCurrentThreadCpuTime() - start;
+            if (allExpected && !consensus) {
+                consensus = true;
+                consensusTimes[numConsensus++] = (now - phaseStart) / 1000000;
+            }
+        }
+        long[] times = Arrays.copyOf(consensusTimes, numConsensus);
+        Arrays.sort(times);
+        double realNanos = seconds * 1e9 * numDevices;
+        System.out.println(numDevices + "," + seconds + ","
+                + String.format("%.3f", 100 * (analysisNanos + messagingNanos) / realNanos) + ","
+                + String.format("%.3f", 100 * analysisNanos / realNanos) + ","
+                + String.format("%.3f", 100 * messagingNanos / realNanos) + ","
+                + String.format("%.1f", numSent / (double) seconds) + ","
+                + String.format("%.1f", numDelivered / (double) seconds) + ","
+                + String.format("%.1f", numLost / (double) seconds) + ","
+                + (times.length > 0 ? times[times.length / 2] : -1) + ","
+                + (times.length > 0 ? times[times.length - 1] : -1) + ","
+                + (numPhases - numConsensus));
+    }
+}
@@ -0,0 +1,75 @@
+package my_classes;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Checks that the steady-state per-sample path of {@link SensorFeatureEngine} allocates nothing, so that the
+ * analysis cannot cause GC pauses next to the audio thread. Runs every routine of {@link FeatureBenchmark} on a
+ * regular and an irregular signal, warms each one up, then counts the bytes the JVM says this thread allocated
+ * over OPS further samples, taking the least of REPEATS runs. differentialEntropyBatch is left out, it is the
+ * reference that allocates and is not called per sample. Prints one line per case and exits with status 1 if any
+ * case allocated, or if the JVM cannot count allocations.
+ * <p>
+ * Usage: FeatureAllocationCheck
+ */
+public class FeatureAllocationCheck {
+
+    static final int[] HISTORY_LENS = {128, 512};
+    static final int WARMUP_OPS = 20000;
+    static final int OPS = 10000;
+    static final int REPEATS = 3;           //the JVM now and then allocates a few bytes once, e.g. when it recompiles
+    static final String REFERENCE_ONLY = "differentialEntropyBatch";
+
+    public static void main(String[] args) {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        boolean canCountBytes = threadBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported();
+        if (!canCountBytes) {
+            System.out.println("FAIL: this JVM cannot count allocated bytes per thread");
+            System.exit(1);
+        }
+        ((com.sun.management.ThreadMXBean) threadBean).setThreadAllocatedMemoryEnabled(true);
+        GyroSignalGenerator.Shape[] shapes = {GyroSignalGenerator.Shape.REGULAR, GyroSignalGenerator.Shape.IRREGULAR};
+        float[][] signals = new float[shapes.length][FeatureBenchmark.SIGNAL_LEN];
+        for (int s = 0; s < shapes.length; s++) {
+            new GyroSignalGenerator(shapes[s], FeatureBenchmark.REGULAR_PERIOD_SAMPLES, 1).fillMagnitudes(signals[s]);
+        }
+        //what reading the counter itself costs, taken off every case
+        long overhead = Long.MAX_VALUE;
+        for (int i = 0; i < 100; i++) {
+            long before = FeatureBenchmark.allocatedBytes(threadBean, true);
+            overhead = Math.min(overhead, FeatureBenchmark.allocatedBytes(threadBean, true) - before);
+        }
+        int failures = 0;
+        for (FeatureBenchmark.Routine routine : FeatureBenchmark.ROUTINES) {
+            if (routine.name.equals(REFERENCE_ONLY)) {
+                continue;
+            }
+            for (int historyLen : HISTORY_LENS) {
+                for (int s = 0; s < shapes.length; s++) {
+                    SensorFeatureEngine features = FeatureBenchmark.newEngine(historyLen, signals[s]);
+                    routine.setup(features);
+                    int pos = FeatureBenchmark.runOps(routine, features, signals[s], historyLen, WARMUP_OPS);
+                    long bytes = Long.MAX_VALUE;
+                    for (int r = 0; r < REPEATS && bytes > 0; r++) {
+                        long before = FeatureBenchmark.allocatedBytes(threadBean, true);
+                        pos = FeatureBenchmark.runOps(routine, features, signals[s], pos, OPS);
+                        bytes = Math.min(bytes, FeatureBenchmark.allocatedBytes(threadBean, true) - before - overhead);
+                    }
+                    boolean ok = bytes <= 0;
+                    if (!ok) {
+                        failures++;
+                    }
+                    System.out.println((ok ? "ok   " : "FAIL ") + routine.name + " historyLen=" + historyLen
+                            + " signal=" + shapes[s] + " bytes=" + Math.max(0, bytes));
+                }
+            }
+        }
+        if (failures > 0) {
+            System.out.println("FAIL: " + failures + " cases allocated on the per-sample path");
+            System.exit(1);
+        }
+        System.out.println("OK: no allocation on the per-sample path");
+    }
+}
@@ -0,0 +1,212 @@
+package my_classes;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures the cost per call of the gesture analysis routines in {@link SensorFeatureEngine}, across history
+ * lengths and for each shape of synthetic gyro signal. Run it on the device to pick SENSOR_HISTORY_LEN
+ * and STEPS_BETWEEN_UPDATE from data.
+ * <p>
+ * Each op adds one sample to the history then calls the routine, the way the YMSSP compositions use it. Every
+ * case is warmed up before it is timed, and results are fed to a sink so the JIT cannot drop the work. Bytes
+ * per op come from the JVM's per-thread allocation counter and read -1 where that is not supported. Prints CSV.
+ * <p>
+ * Usage: FeatureBenchmark [warmupMS] [measureMS]
+ */
+public class FeatureBenchmark {
+
+    static final int[] HISTORY_LENS = {64, 128, 256, 512, 1024, 2048, 4096};
+    static final int PERIOD_HISTORY_LEN = 10;
+    static final float REGULAR_PERIOD_SAMPLES = 25;       //half a second at 50Hz
+    static final int SIGNAL_LEN = 1 << 16;
+    static final int PADDING = 1;
+    static final long SAMPLE_INTERVAL_NANOS = 20000000L;  //pretend samples arrive every 20ms
+
+    static volatile double sink;
+    static long timeNanos;
+
+    static abstract class Routine {
+        final String name;
+
+        Routine(String name) {
+            this.name = name;
+        }
+
+        void setup(SensorFeatureEngine features) {
+        }
+
+        abstract double run(SensorFeatureEngine features);
+    }
+
+    static final Routine[] ROUTINES = {
+            new Routine("addSample") {
+                @Override
+                double run(SensorFeatureEngine features) {
+                    return 0;
+                }
+            },
+            new Routine("addSample+slidingDFT+autocorrelation") {
+                @Override
+                void setup(SensorFeatureEngine features) {
+                    features.setSpectralMode(SensorFeatureEngine.SpectralMode.SLIDING_DFT);
+                    features.setAutocorrelationLags(2, features.getHistoryLen() / 2);
+                }
+
+                @Override
+                double run(SensorFeatureEngine features) {
+                    return 0;
+                }
+            },
+            new Routine("findPeakPeriodXCross") {
+                @Override
+                double run(SensorFeatureEngine features) {
+                    return features.findPeakPeriodXCross();
+                }
+            },
+            new Routine("findPeakPeriodXCross(resampled)") {
+                @Override
+                void setup(SensorFeatureEngine features) {
+                    features.setResampling(true);
+                }
+
+                @Override
+                double run(SensorFeatureEngine features) {
+                    return features.findPeakPeriodXCross();
+                }
+            },
+            new Routine("findPeakPeriod") {
+                @Override
+                double run(SensorFeatureEngine features) {
+                    return features.findPeakPeriod(PADDING);
+                }
+            },
+            new Routine("findPeakPeriodAutocorrelation") {
+                @Override
+                void setup(SensorFeatureEngine features) {
+                    features.setAutocorrelationLags(2, features.getHistoryLen() / 2);
+                }
+
+                @Override
+                double run(SensorFeatureEngine features) {
+                    return features.findPeakPeriodAutocorrelation();
+                }
+            },
+            new Routine("updateSpectralData(FFT)") {
+                @Override
+                double run(SensorFeatureEngine features) {
+                    features.updateSpectralData();
+                    return features.getSpectralFlatness();
+                }
+            },
+            new Routine("updateSpectralData(SLIDING_DFT)") {
+                @Override
+                void setup(SensorFeatureEngine features) {
+                    features.setSpectralMode(SensorFeatureEngine.SpectralMode.SLIDING_DFT);
+                }
+
+                @Override
+                double run(SensorFeatureEngine features) {
+                    features.updateSpectralData();
+                    return features.getSpectralFlatness();
+                }
+            },
+            new Routine("differentialEntropy") {
+                @Override
+                double run(SensorFeatureEngine features) {
+                    return features.differentialEntropy();
+                }
+            },
+            new Routine("differentialEntropyBatch") {
+                @Override
+                double run(SensorFeatureEngine features) {
+                    return features.differentialEntropyBatch();
+                }
+            },
+            new Routine("calculatePeriodDeviation") {
+                @Override
+                double run(SensorFeatureEngine features) {
+                    features.updatePeriod(500, 0.2f);
+                    return features.calculatePeriodDeviation();
+                }
+            }
+    };
+
+    public static void main(String[] args) {
+        long warmupMS = args.length > 0 ? Long.parseLong(args[0]) : 200;
+        long measureMS = args.length > 1 ? Long.parseLong(args[1]) : 500;
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        boolean canCountBytes = threadBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported();
+        if (canCountBytes) {
+            ((com.sun.management.ThreadMXBean) threadBean).setThreadAllocatedMemoryEnabled(true);
+        }
+        //same signals for every case, one per shape
+        GyroSignalGenerator.Shape[] shapes = GyroSignalGenerator.Shape.values();
+        float[][] signals = new float[shapes.length][SIGNAL_LEN];
+        for (GyroSignalGenerator.Shape shape : shapes) {
+            new GyroSignalGenerator(shape, REGULAR_PERIOD_SAMPLES, 1).fillMagnitudes(signals[shape.ordinal()]);
+        }
+        System.out.println("routine,historyLen,signal,nsPerOp,bytesPerOp");
+        for (Routine routine : ROUTINES) {
+            for (int historyLen : HISTORY_LENS) {
+                for (GyroSignalGenerator.Shape shape : shapes) {
+                    float[] signal = signals[shape.ordinal()];
+                    SensorFeatureEngine features = newEngine(historyLen, signal);
+                    routine.setup(features);
+                    int pos = historyLen;
+                    //warm up, and size the batches so the clock is read about every millisecond
+                    long ops = 0;
+                    long start = System.nanoTime();
+                    long end = start + warmupMS * 1000000L;
+                    while (System.nanoTime() < end) {
+                        pos = runOps(routine, features, signal, pos, 16);
+                        ops += 16;
+                    }
+                    int batch = (int) Math.max(1, Math.min(1 << 20, ops * 1000000L / (System.nanoTime() - start)));
+                    //measure
+                    ops = 0;
+                    long bytesBefore = allocatedBytes(threadBean, canCountBytes);
+                    start = System.nanoTime();
+                    end = start + measureMS * 1000000L;
+                    long now;
+                    do {
+                        pos = runOps(routine, features, signal, pos, batch);
+                        ops += batch;
+                        now = System.nanoTime();
+                    } while (now < end);
+                    long bytes = allocatedBytes(threadBean, canCountBytes) - bytesBefore;
+                    System.out.println(routine.name + "," + historyLen + "," + shape + ","
+                            + String.format("%.1f", (now - start) / (double) ops) + ","
+                            + (canCountBytes ? String.format("%.2f", bytes / (double) ops) : "-1"));
+                }
+            }
+        }
+    }
+
+    static SensorFeatureEngine newEngine(int historyLen, float[] signal) {
+        SensorFeatureEngine features = new SensorFeatureEngine(historyLen, PERIOD_HISTORY_LEN);
+        for (int i = 0; i < historyLen; i++) {
+            features.addSample(signal[i], timeNanos += SAMPLE_INTERVAL_NANOS);
+        }
+        return features;
+    }
+
+    static int runOps(Routine routine, SensorFeatureEngine features, float[] signal, int pos, int numOps) {
+        double result = 0;
+        for (int i = 0; i < numOps; i++) {
+            features.addSample(signal[pos], timeNanos += SAMPLE_INTERVAL_NANOS);
+            if (++pos == signal.length) pos = 0;
+            result += routine.run(features);
+        }
+        sink = result;
+        return pos;
+    }
+
+    static long allocatedBytes(ThreadMXBean threadBean, boolean canCountBytes) {
+        if (!canCountBytes) {
+            return 0;
+        }
+        return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
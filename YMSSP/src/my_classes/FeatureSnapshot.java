@@ -0,0 +1,34 @@
+package my_classes;
+
+/**
+ * An immutable copy of the gesture features at one gyro reading, published by {@link GestureAnalysisWorker}
+ * so that audio, control and network threads can read a consistent set of values without locking.
+ */
+public final class FeatureSnapshot {
+
+    public final long timeNanos;            //time of the gyro reading the features were computed at
+    public final long count;                //number of gyro readings analysed so far
+    public final GestureAnalyser.Mode mode;
+    public final float sensorMagnitude;
+    public final float period;
+    public final float integratedPeriod;
+    public final float periodStrength;
+    public final float deviation;
+    public final float accelX, accelY, accelZ;
+
+    public FeatureSnapshot(long timeNanos, long count, GestureAnalyser.Mode mode, float sensorMagnitude,
+                           float period, float integratedPeriod, float periodStrength, float deviation,
+                           float accelX, float accelY, float accelZ) {
+        this.timeNanos = timeNanos;
+        this.count = count;
+        this.mode = mode;
+        this.sensorMagnitude = sensorMagnitude;
+        this.period = period;
+        this.integratedPeriod = integratedPeriod;
+        this.periodStrength = periodStrength;
+        this.deviation = deviation;
+        this.accelX = accelX;
+        this.accelY = accelY;
+        this.accelZ = accelZ;
+    }
+}
@@ -0,0 +1,243 @@
+package my_classes;
+
+/**
+ * The sensor analysis and mode logic of {@link YMSSP3} and {@link YMSSP4}, with no dependency on HB or audio, so
+ * that it can be driven from recorded traces on a dev box as well as from live sensors on the device.
+ * <p>
+ * Feed it gyro readings and the deviation and period broadcast by the other devices. It works out this device's
+ * period, period strength and deviation (spectral flatness), and the mode from this device's deviation and the
+ * others'. Override {@link #modeChanged(Mode)} to hear about mode changes. The mode goes through a
+ * {@link ModeStateMachine}, so deviations near the threshold do not flip it back and forth.
+ * <p>
+ * Values from other devices arrive either as anonymous deviation and period, for a duet, or as peer state
+ * tagged with the sender's device index. Peer state goes into a {@link PeerTable}, and the others count as
+ * regular if at least half of the devices heard from recently are, with the other period their median. Each
+ * device is judged with the same hysteresis as this one.
+ */
+public class GestureAnalyser {
+
+    public enum Mode {
+        DISJOINT, SOLO, BASELINE, UNITY
+    }
+
+    public static final int SENSOR_HISTORY_LEN = 128;           //100 x 20ms = 2s possible interval range
+    public static final int PERIOD_HISTORY_LEN = 10;
+    public static final int STEPS_BETWEEN_UPDATE = 5;
+    public static final float PERIOD_SMOOTHING = 0.044f;        //per sample, about the same as 0.2 every STEPS_BETWEEN_UPDATE
+    public static final float DEVIATION_THRESH = 0.14f; //300000f < this is the thresh if using the spectral entropy
+    public static final int MAX_PEERS = 256;                    //device indexes from 0 to this - 1
+    public static final long PEER_TIMEOUT_NANOS = 3000000000L;  //forget a device after 3s without a message
+    public static final float DEVIATION_HYSTERESIS = 0.06f;     //between turning irregular and turning back
+    public static final long MIN_MODE_DWELL_NANOS = 1000000000L;
+
+    final SensorFeatureEngine features;    //ring buffer storing history of gyro, and the features derived from it
+    final float deviationThresh;           //spectral flatness above this counts as irregular
+    final PeerTable peers;                 //the other devices, when they send peer state
+    final ModeStateMachine modeMachine;    //thresholds with hysteresis, and a minimum time between changes
+
+    Mode mode;
+    long count;
+    float sensorMagnitude;          //abs mag of gyro movements
+    float period, periodStrength, deviation, theOtherPeriod = -1, theOtherDeviation, integratedPeriod;
+    long lastTimeNanos;             //of the latest reading or peer state
+
+    public GestureAnalyser(Mode initialMode) {
+        this(initialMode, DEVIATION_THRESH);
+    }
+
+    public GestureAnalyser(Mode initialMode, float deviationThresh) {
+        this(initialMode, deviationThresh, DEVIATION_HYSTERESIS, MIN_MODE_DWELL_NANOS);
+    }
+
+    /**
+     * @param deviationThresh the deviation between regular and irregular, for this device and the others.
+     * @param hysteresis      how far apart the thresholds for turning irregular and back are, centred on
+     *                        deviationThresh, 0 for none.
+     * @param minDwellNanos   the shortest time to stay in a mode, 0 for none.
+     */
+    public GestureAnalyser(Mode initialMode, float deviationThresh, float hysteresis, long minDwellNanos) {
+        mode = initialMode;
+        this.deviationThresh = deviationThresh;
+        modeMachine = ModeStateMachine.centredOn(initialMode, deviationThresh, hysteresis, minDwellNanos);
+        features = new SensorFeatureEngine(SENSOR_HISTORY_LEN, PERIOD_HISTORY_LEN);
+        features.setSpectralMode(SensorFeatureEngine.SpectralMode.SLIDING_DFT);
+        features.setAutocorrelationLags(2, SENSOR_HISTORY_LEN / 2);
+        peers = new PeerTable(MAX_PEERS, PEER_TIMEOUT_NANOS, modeMachine.getEnterThresh(),
+                modeMachine.getExitThresh());
+    }
+
+    /**
+     * Called when the mode changes, from whichever thread delivered the reading that changed it.
+     */
+    public void modeChanged(Mode newMode) {
+    }
+
+    /**
+     * Adds a gyro reading and updates the features and mode.
+     *
+     * @param timeNanos the time of the reading, from {@link System#nanoTime()} or a trace.
+     * @return true every STEPS_BETWEEN_UPDATE readings, when the slower housekeeping should be done.
+     */
+    public boolean gyroUpdated(float x, float y, float z, long timeNanos) {
+        //extract overall mag and put into history
+        sensorMagnitude = features.addSample(x, y, z, timeNanos);
+        analyse(PERIOD_SMOOTHING, timeNanos);
+        return count++ % STEPS_BETWEEN_UPDATE == 0;
+    }
+
+    /**
+     * Adds a block of gyro readings, as delivered by {@link SensorBlockBuffer}, and updates the features and
+     * mode once at the end of the block. The mode and period can lag by up to a block, in exchange for doing
+     * the spectral, period and mode work once per block rather than once per reading.
+     *
+     * @return true if the block included one of the every STEPS_BETWEEN_UPDATE readings.
+     */
+    public boolean gyroBlockUpdated(long[] timeNanos, float[] x, float[] y, float[] z, int numReadings) {
+        if (numReadings == 0) {
+            return false;
+        }
+        features.addSamples(timeNanos, x, y, z, numReadings);
+        int last = numReadings - 1;
+        sensorMagnitude = (float) Math.sqrt(x[last] * x[last] + y[last] * y[last] + z[last] * z[last]);
+        //smooth the period as much as the same readings would have one at a time
+        analyse(1 - (float) Math.pow(1 - PERIOD_SMOOTHING, numReadings), timeNanos[last]);
+        long first = count;
+        count += numReadings;
+        return (count - 1) / STEPS_BETWEEN_UPDATE >= (first + STEPS_BETWEEN_UPDATE - 1) / STEPS_BETWEEN_UPDATE;
+    }
+
+    private void analyse(float periodSmoothing, long timeNanos) {
+        lastTimeNanos = timeNanos;
+        if (peers.evictStale(timeNanos) > 0) {
+            ensembleUpdated();
+        }
+        //check regularity, the sliding spectrum is cheap enough to do this every sample
+        features.updateSpectralData();
+        deviation = features.getSpectralFlatness();
+        checkMode();
+        //the autocorrelation is kept up to date on every sample, so the period can be too
+        float tempPeriod = features.findPeakPeriodAutocorrelation();
+        if (features.updatePeriod(tempPeriod, periodSmoothing)) {
+            period = features.getPeriod();
+            if (theOtherPeriod > 0 && mode == Mode.UNITY) {
+                integratedPeriod = (period + theOtherPeriod) * 0.5f;
+            } else if (theOtherPeriod > 0 && mode == Mode.SOLO) {
+                integratedPeriod = theOtherPeriod;
+            } else {
+                integratedPeriod = period;
+            }
+        }
+        periodStrength = features.getPeriodStrength();
+    }
+
+    public void otherDeviationReceived(float otherDeviation) {
+        theOtherDeviation = otherDeviation;
+        modeMachine.otherDeviationUpdated(otherDeviation);
+        checkMode();
+    }
+
+    /**
+     * Adds the state sent by another device, replacing whatever it sent before.
+     *
+     * @param timeNanos the time the state arrived, on the same clock as the gyro readings.
+     */
+    public void peerStateReceived(int device, float otherDeviation, float otherPeriod, long timeNanos) {
+        lastTimeNanos = Math.max(lastTimeNanos, timeNanos);
+        if (peers.update(device, otherPeriod, otherDeviation, timeNanos)) {
+            ensembleUpdated();
+        }
+    }
+
+    private void ensembleUpdated() {
+        if (peers.size() == 0) {
+            //nobody left, back to how we started
+            theOtherDeviation = 0;
+            modeMachine.setOtherIrregular(false);
+            theOtherPeriod = -1;
+            integratedPeriod = period;
+        } else {
+            theOtherDeviation = peers.getMeanDeviation();
+            modeMachine.setOtherIrregular(peers.getRegularFraction() < 0.5f);
+            theOtherPeriod = peers.getMedianPeriod();
+            if (theOtherPeriod > 0) {
+                integratedPeriod = (theOtherPeriod + period) / 2;
+            }
+        }
+        checkMode();
+    }
+
+    public void otherPeriodReceived(float otherPeriod) {
+        theOtherPeriod = otherPeriod;
+        integratedPeriod = (theOtherPeriod + period) / 2;
+    }
+
+    private void checkMode() {
+        if (modeMachine.update(deviation, lastTimeNanos)) {
+            mode = modeMachine.getMode();
+            modeChanged(mode);
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return the number of gyro readings analysed.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public float getSensorMagnitude() {
+        return sensorMagnitude;
+    }
+
+    public float getPeriod() {
+        return period;
+    }
+
+    public float getIntegratedPeriod() {
+        return integratedPeriod;
+    }
+
+    public float getPeriodStrength() {
+        return periodStrength;
+    }
+
+    public float getDeviation() {
+        return deviation;
+    }
+
+    /**
+     * @return the last deviation received from the other device, or the mean of the others' for peer state.
+     */
+    public float getOtherDeviation() {
+        return theOtherDeviation;
+    }
+
+    public float getDeviationThresh() {
+        return deviationThresh;
+    }
+
+    /**
+     * @return the mode logic, for its transition counts. Only touch it on the thread driving the analyser.
+     */
+    public ModeStateMachine getModeMachine() {
+        return modeMachine;
+    }
+
+    /**
+     * @return the other devices that have sent peer state. Only touch it on the thread driving the analyser.
+     */
+    public PeerTable getPeers() {
+        return peers;
+    }
+
+    /**
+     * @return the timing statistics of the gyro readings.
+     */
+    public SensorClock getClock() {
+        return features.getClock();
+    }
+}
@@ -0,0 +1,187 @@
+package my_classes;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a {@link GestureAnalyser} on its own thread, so that sensor and network callbacks only hand their data
+ * over and return straight away.
+ * <p>
+ * Gyro, accelerometer and peer values each arrive through their own {@link SensorRing}, so each ring has the
+ * single producer it needs even if HB delivers the sensors on different threads. Peer state goes through a
+ * {@link PeerMailbox} instead, so a burst of packets from a peer is applied once, with its latest values. The
+ * worker drains the mailbox and the rings, peers before gyro so each reading is analysed against the latest
+ * peer state, runs the analysis, and publishes a {@link FeatureSnapshot} after every gyro reading. The analyser,
+ * including its {@link GestureAnalyser#modeChanged} callback, is only touched on the worker thread. Override
+ * {@link #featuresUpdated(FeatureSnapshot)} for the slower work done every STEPS_BETWEEN_UPDATE readings.
+ */
+public class GestureAnalysisWorker implements SensorRing.Consumer, PeerMailbox.Consumer {
+
+    static final long IDLE_PARK_NANOS = 5000000;      //wake at least this often even if nobody unparks us
+    static final int PEER_DEVIATION = 0;              //mailbox fields
+    static final int PEER_PERIOD = 1;
+
+    final GestureAnalyser analyser;
+    final SensorRing gyroRing, accelRing, peerRing;
+    final PeerMailbox peerMailbox = new PeerMailbox(GestureAnalyser.MAX_PEERS, 2);
+
+    volatile FeatureSnapshot snapshot;
+    volatile boolean running;
+    volatile Thread thread;
+    float accelX, accelY, accelZ;
+
+    /**
+     * @param ringCapacity the number of readings each ring can hold while the worker is busy.
+     */
+    public GestureAnalysisWorker(GestureAnalyser analyser, int ringCapacity) {
+        this.analyser = analyser;
+        gyroRing = new SensorRing(ringCapacity);
+        accelRing = new SensorRing(ringCapacity);
+        peerRing = new SensorRing(ringCapacity);
+        snapshot = takeSnapshot(0);
+    }
+
+    /**
+     * Called on the worker thread every STEPS_BETWEEN_UPDATE gyro readings, with the latest features.
+     */
+    public void featuresUpdated(FeatureSnapshot snapshot) {
+    }
+
+    public void start() {
+        running = true;
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running) {
+                    int n = accelRing.drain(GestureAnalysisWorker.this)
+                            + peerRing.drain(GestureAnalysisWorker.this)
+                            + peerMailbox.drain(GestureAnalysisWorker.this)
+                            + gyroRing.drain(GestureAnalysisWorker.this);
+                    if (n == 0) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                }
+            }
+        }, "GestureAnalysisWorker");
+        t.setDaemon(true);
+        thread = t;
+        t.start();
+    }
+
+    public void stop() {
+        running = false;
+        Thread t = thread;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    //producer side, each called from a single thread
+
+    public void gyroUpdated(long timeNanos, float x, float y, float z) {
+        gyroRing.offer(SensorTraceRecorder.GYRO, timeNanos, x, y, z);
+        wake();
+    }
+
+    public void accelUpdated(long timeNanos, float x, float y, float z) {
+        accelRing.offer(SensorTraceRecorder.ACCEL, timeNanos, x, y, z);
+    }
+
+    public void otherDeviationReceived(float otherDeviation) {
+        peerRing.offer(SensorTraceRecorder.PEER_DEVIATION, System.nanoTime(), otherDeviation, 0, 0);
+        wake();
+    }
+
+    public void otherPeriodReceived(float otherPeriod) {
+        peerRing.offer(SensorTraceRecorder.PEER_PERIOD, System.nanoTime(), otherPeriod, 0, 0);
+    }
+
+    public void peerStateReceived(int device, float otherDeviation, float otherPeriod) {
+        long now = System.nanoTime();
+        peerMailbox.post(device, PEER_DEVIATION, otherDeviation, now);
+        peerMailbox.post(device, PEER_PERIOD, otherPeriod, now);
+        wake();
+    }
+
+    private void wake() {
+        Thread t = thread;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    //consumer side, on the worker thread
+
+    @Override
+    public void readingReceived(int type, long timeNanos, float x, float y, float z) {
+        try {
+            switch (type) {
+                case SensorTraceRecorder.GYRO:
+                    boolean update = analyser.gyroUpdated(x, y, z, timeNanos);
+                    FeatureSnapshot s = takeSnapshot(timeNanos);
+                    snapshot = s;
+                    if (update) {
+                        featuresUpdated(s);
+                    }
+                    break;
+                case SensorTraceRecorder.ACCEL:
+                    accelX = x;
+                    accelY = y;
+                    accelZ = z;
+                    break;
+                case SensorTraceRecorder.PEER_DEVIATION:
+                    analyser.otherDeviationReceived(x);
+                    break;
+                case SensorTraceRecorder.PEER_PERIOD:
+                    analyser.otherPeriodReceived(x);
+                    break;
+                case SensorTraceRecorder.PEER_STATE:
+                    analyser.peerStateReceived((int) z, x, y, timeNanos);
+                    break;
+            }
+        } catch (RuntimeException e) {
+            //keep the worker alive, a bad reading should not stop the analysis
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void peerUpdated(int device, long timeNanos, int changed, float[] values) {
+        //caught between a peer's two posts the first time it is heard, the rest follows in the next drain
+        if (Float.isNaN(values[PEER_DEVIATION]) || Float.isNaN(values[PEER_PERIOD])) {
+            return;
+        }
+        try {
+            analyser.peerStateReceived(device, values[PEER_DEVIATION], values[PEER_PERIOD], timeNanos);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private FeatureSnapshot takeSnapshot(long timeNanos) {
+        return new FeatureSnapshot(timeNanos, analyser.getCount(), analyser.getMode(),
+                analyser.getSensorMagnitude(), analyser.getPeriod(), analyser.getIntegratedPeriod(),
+                analyser.getPeriodStrength(), analyser.getDeviation(), accelX, accelY, accelZ);
+    }
+
+    /**
+     * @return the features after the most recent gyro reading. Safe to call from any thread.
+     */
+    public FeatureSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return the number of readings dropped because a ring was full, or peer state because the mailbox was.
+     */
+    public long getNumDropped() {
+        return gyroRing.getNumDropped() + accelRing.getNumDropped() + peerRing.getNumDropped()
+                + peerMailbox.getNumDropped();
+    }
+
+    /**
+     * @return the number of peer values replaced by newer ones before the analysis got to them.
+     */
+    public long getNumCoalesced() {
+        return peerMailbox.getNumCoalesced();
+    }
+}
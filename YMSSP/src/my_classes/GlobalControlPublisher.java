@@ -0,0 +1,169 @@
+package my_classes;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Publishes values for monitoring, such as GLOBAL scope controls, on a fixed schedule instead of every time they
+ * are computed, so that monitoring costs the same network and CPU however fast the analysis runs.
+ * <p>
+ * The analysis thread calls {@link #set} as often as it likes, which only stores the value. A publisher thread
+ * wakes every interval, picks out the values that have moved more than their epsilon since they were last
+ * published, and passes them to the {@link Sink} as one batch. Values set in between are coalesced, only the
+ * latest is seen. Add the controls before calling {@link #start}. One thread may call {@link #set}.
+ */
+public class GlobalControlPublisher {
+
+    public interface Sink {
+        /**
+         * Called on the publisher thread with the controls that changed. The arrays are reused, so only valid
+         * during the call.
+         */
+        void controlsPublished(int[] indexes, float[] values, int count);
+    }
+
+    final long intervalNanos;
+    final Sink sink;
+
+    AtomicIntegerArray latest = new AtomicIntegerArray(0);  //float bits, NaN until set
+    float[] epsilons = new float[0];
+    float[] published = new float[0];                       //publisher thread only
+    int[] batchIndexes = new int[0];
+    float[] batchValues = new float[0];
+    int numControls;
+
+    volatile boolean running;
+    volatile Thread thread;
+    volatile long numSets, numBatches, numPublished;
+
+    /**
+     * @param intervalNanos the time between publishes, e.g. 100ms for 10Hz.
+     */
+    public GlobalControlPublisher(long intervalNanos, Sink sink) {
+        this.intervalNanos = intervalNanos;
+        this.sink = sink;
+    }
+
+    /**
+     * Adds a control, before {@link #start}.
+     *
+     * @param epsilon the smallest change worth publishing.
+     * @return the index to {@link #set} it by.
+     */
+    public int addControl(float epsilon) {
+        int n = numControls + 1;
+        AtomicIntegerArray values = new AtomicIntegerArray(n);
+        for (int i = 0; i < n; i++) {
+            values.set(i, i < numControls ? latest.get(i) : Float.floatToRawIntBits(Float.NaN));
+        }
+        latest = values;
+        epsilons = Arrays.copyOf(epsilons, n);
+        epsilons[numControls] = epsilon;
+        published = Arrays.copyOf(published, n);
+        published[numControls] = Float.NaN;
+        batchIndexes = new int[n];
+        batchValues = new float[n];
+        return numControls++;
+    }
+
+    /**
+     * Stores the latest value of a control, to go out at the next publish if it has changed enough.
+     */
+    public void set(int index, float value) {
+        latest.lazySet(index, Float.floatToRawIntBits(value));
+        numSets++;
+    }
+
+    public void start() {
+        running = true;
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long next = System.nanoTime() + intervalNanos;
+                while (running) {
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(this, wait);
+                        continue;
+                    }
+                    publish();
+                    next += intervalNanos;
+                    if (System.nanoTime() - next > intervalNanos) {
+                        //fell behind, do not try to catch up
+                        next = System.nanoTime() + intervalNanos;
+                    }
+                }
+            }
+        }, "GlobalControlPublisher");
+        t.setDaemon(true);
+        thread = t;
+        t.start();
+    }
+
+    public void stop() {
+        running = false;
+        Thread t = thread;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     * Passes the controls that have changed enough to the sink, if any. Called by the publisher thread, or
+     * directly when not using {@link #start}.
+     *
+     * @return the number of controls published.
+     */
+    public int publish() {
+        int count = 0;
+        for (int i = 0; i < numControls; i++) {
+            float value = Float.intBitsToFloat(latest.get(i));
+            if (Float.isNaN(value)) {
+                continue;
+            }
+            if (Float.isNaN(published[i]) || Math.abs(value - published[i]) > epsilons[i]) {
+                published[i] = value;
+                batchIndexes[count] = i;
+                batchValues[count++] = value;
+            }
+        }
+        if (count > 0) {
+            try {
+                sink.controlsPublished(batchIndexes, batchValues, count);
+            } catch (RuntimeException e) {
+                //keep publishing, monitoring should not stop over one bad batch
+                e.printStackTrace();
+            }
+            numBatches++;
+            numPublished += count;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of values set.
+     */
+    public long getNumSets() {
+        return numSets;
+    }
+
+    public long getNumBatches() {
+        return numBatches;
+    }
+
+    /**
+     * @return the number of values published, over all batches.
+     */
+    public long getNumPublished() {
+        return numPublished;
+    }
+
+    /**
+     * @return the fraction of values set that were not published, 0 before any.
+     */
+    public float getSavedFraction() {
+        long sets = numSets;
+        return sets == 0 ? 0 : 1 - numPublished / (float) sets;
+    }
+}
@@ -0,0 +1,78 @@
+package my_classes;
+
+import java.util.Random;
+
+/**
+ * Synthetic gyroscope readings for benchmarking and testing the feature code without hardware. A regular signal
+ * is a repeating swing with a little jitter and noise, like a player keeping a steady beat. An irregular signal
+ * wanders and jumps at random. A shaking signal is sparse random jolts over a little noise, which unlike the
+ * irregular walk has a flat enough spectrum for {@link GestureAnalyser} to call it irregular. The same seed always
+ * produces the same stream.
+ */
+public class GyroSignalGenerator {
+
+    public enum Shape {
+        REGULAR, IRREGULAR, SHAKING
+    }
+
+    final Shape shape;
+    final float periodSamples;
+    final Random rng;
+
+    double phase;
+    float x, y, z;
+
+    /**
+     * @param shape         regular or irregular movement.
+     * @param periodSamples the length of one swing in samples, for the regular shape.
+     * @param seed          the random seed.
+     */
+    public GyroSignalGenerator(Shape shape, float periodSamples, long seed) {
+        this.shape = shape;
+        this.periodSamples = periodSamples;
+        rng = new Random(seed);
+    }
+
+    /**
+     * Writes the next x, y, z reading into xyz.
+     */
+    public void next(float[] xyz) {
+        if (shape == Shape.REGULAR) {
+            //one swing per period, with a little tempo jitter
+            phase += (1 + 0.05 * rng.nextGaussian()) / periodSamples;
+            double angle = 2 * Math.PI * phase;
+            x = (float) (3 * Math.sin(angle) + 0.2 * rng.nextGaussian());
+            y = (float) (1 * Math.sin(2 * angle) + 0.2 * rng.nextGaussian());
+            z = (float) (0.5 * Math.cos(angle) + 0.2 * rng.nextGaussian());
+        } else if (shape == Shape.SHAKING) {
+            //still but for jolts at random moments
+            boolean jolt = rng.nextFloat() < 0.2f;
+            x = (float) ((jolt ? 6 : 0.3) * rng.nextGaussian());
+            y = (float) (0.3 * rng.nextGaussian());
+            z = (float) (0.3 * rng.nextGaussian());
+        } else {
+            //random walk pulled back towards rest, with occasional jolts
+            x += -0.1f * x + 0.5f * (float) rng.nextGaussian();
+            y += -0.1f * y + 0.5f * (float) rng.nextGaussian();
+            z += -0.1f * z + 0.5f * (float) rng.nextGaussian();
+            if (rng.nextFloat() < 0.02f) {
+                x += 6 * (rng.nextFloat() - 0.5f);
+                y += 6 * (rng.nextFloat() - 0.5f);
+            }
+        }
+        xyz[0] = x;
+        xyz[1] = y;
+        xyz[2] = z;
+    }
+
+    /**
+     * Fills dest with the magnitudes of the next dest.length readings.
+     */
+    public void fillMagnitudes(float[] dest) {
+        float[] xyz = new float[3];
+        for (int i = 0; i < dest.length; i++) {
+            next(xyz);
+            dest[i] = (float) Math.sqrt(xyz[0] * xyz[0] + xyz[1] * xyz[1] + xyz[2] * xyz[2]);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package my_classes;
+
+import my_classes.GestureAnalyser.Mode;
+
+/**
+ * Decides the mode from this device's deviation and whether the others are irregular, with hysteresis and a
+ * minimum dwell, so that a deviation hovering around the threshold does not flip the mode, and the sample and
+ * UGen changes that go with it, many times a second.
+ * <p>
+ * This device counts as irregular once its deviation reaches the enter threshold, and as regular again only once
+ * it drops below the exit threshold, which is lower. The same goes for the other device's deviation, when there
+ * is only one other. Whatever the inputs say, the mode is kept for at least the minimum dwell after a change; a
+ * change wanted during that time is counted as held back and happens at the first update after the dwell if it
+ * is still wanted then. Use it from one thread.
+ */
+public class ModeStateMachine {
+
+    final float enterThresh;        //deviation at or above this turns irregular
+    final float exitThresh;         //and below this turns regular again
+    final long minDwellNanos;
+
+    Mode mode;
+    boolean irregular, otherIrregular;
+    long lastChangeTime;
+    boolean changedAny;
+    long numTransitions, numHeldBack;
+
+    /**
+     * @param enterThresh   the deviation at which a regular player turns irregular.
+     * @param exitThresh    the deviation below which an irregular player turns regular, at most enterThresh.
+     * @param minDwellNanos the shortest time to stay in a mode.
+     */
+    public ModeStateMachine(Mode initialMode, float enterThresh, float exitThresh, long minDwellNanos) {
+        if (exitThresh > enterThresh) {
+            throw new IllegalArgumentException("exitThresh " + exitThresh + " is above enterThresh " + enterThresh);
+        }
+        this.enterThresh = enterThresh;
+        this.exitThresh = exitThresh;
+        this.minDwellNanos = minDwellNanos;
+        mode = initialMode;
+        irregular = initialMode == Mode.SOLO || initialMode == Mode.DISJOINT;
+        otherIrregular = initialMode == Mode.BASELINE || initialMode == Mode.DISJOINT;
+    }
+
+    /**
+     * A machine with the thresholds either side of thresh, hysteresis apart.
+     */
+    public static ModeStateMachine centredOn(Mode initialMode, float thresh, float hysteresis, long minDwellNanos) {
+        return new ModeStateMachine(initialMode, thresh + hysteresis / 2, thresh - hysteresis / 2, minDwellNanos);
+    }
+
+    /**
+     * @return whether a player with this deviation is irregular, given whether it was before.
+     */
+    public boolean isIrregular(float deviation, boolean wasIrregular) {
+        return wasIrregular ? deviation >= exitThresh : deviation >= enterThresh;
+    }
+
+    /**
+     * Sets whether the others are irregular from the other device's deviation, with hysteresis.
+     */
+    public void otherDeviationUpdated(float otherDeviation) {
+        otherIrregular = isIrregular(otherDeviation, otherIrregular);
+    }
+
+    /**
+     * Sets whether the others are irregular, when that has been decided elsewhere, e.g. by a {@link PeerTable}.
+     */
+    public void setOtherIrregular(boolean otherIrregular) {
+        this.otherIrregular = otherIrregular;
+    }
+
+    /**
+     * Updates the mode from this device's deviation.
+     *
+     * @return true if the mode changed.
+     */
+    public boolean update(float deviation, long timeNanos) {
+        irregular = isIrregular(deviation, irregular);
+        Mode wanted = otherIrregular
+                ? (irregular ? Mode.DISJOINT : Mode.BASELINE)
+                : (irregular ? Mode.SOLO : Mode.UNITY);
+        if (wanted == mode) {
+            return false;
+        }
+        if (changedAny && timeNanos - lastChangeTime < minDwellNanos) {
+            numHeldBack++;
+            return false;
+        }
+        mode = wanted;
+        lastChangeTime = timeNanos;
+        changedAny = true;
+        numTransitions++;
+        return true;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public boolean isIrregular() {
+        return irregular;
+    }
+
+    public boolean isOtherIrregular() {
+        return otherIrregular;
+    }
+
+    public float getEnterThresh() {
+        return enterThresh;
+    }
+
+    public float getExitThresh() {
+        return exitThresh;
+    }
+
+    public long getMinDwellNanos() {
+        return minDwellNanos;
+    }
+
+    /**
+     * @return the number of mode changes made.
+     */
+    public long getNumTransitions() {
+        return numTransitions;
+    }
+
+    /**
+     * @return the number of updates that wanted a change but were within the minimum dwell.
+     */
+    public long getNumHeldBack() {
+        return numHeldBack;
+    }
+}
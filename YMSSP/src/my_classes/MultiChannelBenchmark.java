@@ -0,0 +1,186 @@
+package my_classes;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Compares the fused and per channel kernels of {@link MultiChannelFeatureExtractor} across history lengths, and
+ * first checks that they give identical features. Readings are added one at a time and in blocks, and the
+ * features are updated every STEPS_BETWEEN_UPDATE readings or once per block if the blocks are longer, the way
+ * {@link GestureAnalyser} analyses. Prints CSV of the cost per reading, with a single channel
+ * {@link SensorFeatureEngine} doing the same work on the gyro magnitude as the reference for what the
+ * compositions spend now.
+ * <p>
+ * Usage: MultiChannelBenchmark [warmupMS] [measureMS]
+ */
+public class MultiChannelBenchmark {
+
+    static final int[] HISTORY_LENS = {64, 128, 256, 512};
+    static final int[] BLOCK_SIZES = {1, 5, 25};
+    static final int STEPS_BETWEEN_UPDATE = 5;
+    static final float REGULAR_PERIOD_SAMPLES = 25;
+    static final int SIGNAL_LEN = 1 << 14;
+    static final int PERIOD_HISTORY_LEN = 10;
+    static final long SAMPLE_INTERVAL_NANOS = 20000000L;
+
+    static volatile double sink;
+
+    public static void main(String[] args) {
+        long warmupMS = args.length > 0 ? Long.parseLong(args[0]) : 200;
+        long measureMS = args.length > 1 ? Long.parseLong(args[1]) : 500;
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        boolean canCountBytes = threadBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported();
+        if (canCountBytes) {
+            ((com.sun.management.ThreadMXBean) threadBean).setThreadAllocatedMemoryEnabled(true);
+        }
+        //gyro swinging regularly, accel wandering
+        float[][] signal = new float[MultiChannelFeatureExtractor.NUM_CHANNELS][SIGNAL_LEN];
+        float[] magnitudes = new float[SIGNAL_LEN];
+        GyroSignalGenerator gyro =
+                new GyroSignalGenerator(GyroSignalGenerator.Shape.REGULAR, REGULAR_PERIOD_SAMPLES, 1);
+        GyroSignalGenerator accel = new GyroSignalGenerator(GyroSignalGenerator.Shape.IRREGULAR, 0, 2);
+        float[] xyz = new float[3];
+        for (int i = 0; i < SIGNAL_LEN; i++) {
+            accel.next(xyz);
+            for (int a = 0; a < 3; a++) {
+                signal[MultiChannelFeatureExtractor.ACCEL_X + a][i] = xyz[a];
+            }
+            gyro.next(xyz);
+            for (int a = 0; a < 3; a++) {
+                signal[MultiChannelFeatureExtractor.GYRO_X + a][i] = xyz[a];
+            }
+            magnitudes[i] = (float) Math.sqrt(xyz[0] * xyz[0] + xyz[1] * xyz[1] + xyz[2] * xyz[2]);
+        }
+        for (int historyLen : HISTORY_LENS) {
+            if (!kernelsAgree(historyLen, signal)) {
+                System.err.println("Kernels disagree at historyLen " + historyLen);
+                System.exit(1);
+            }
+        }
+        System.out.println("kernel,historyLen,blockSize,nsPerReading,bytesPerReading");
+        for (int historyLen : HISTORY_LENS) {
+            for (int blockSize : BLOCK_SIZES) {
+                for (MultiChannelFeatureExtractor.Kernel kernel : MultiChannelFeatureExtractor.Kernel.values()) {
+                    final MultiChannelFeatureExtractor extractor =
+                            new MultiChannelFeatureExtractor(historyLen, 2, historyLen / 2, kernel);
+                    final float[][] block = new float[MultiChannelFeatureExtractor.NUM_CHANNELS][blockSize];
+                    measure(kernel.name(), historyLen, blockSize, warmupMS, measureMS, threadBean, canCountBytes,
+                            new Case() {
+                                int pos;
+                                long readings;
+
+                                @Override
+                                double run(int numReadings) {
+                                    for (int c = 0; c < block.length; c++) {
+                                        int p = pos;
+                                        for (int i = 0; i < numReadings; i++) {
+                                            block[c][i] = signal[c][p];
+                                            if (++p == SIGNAL_LEN) p = 0;
+                                        }
+                                    }
+                                    pos = (pos + numReadings) % SIGNAL_LEN;
+                                    extractor.addSamples(block, numReadings);
+                                    long before = readings;
+                                    readings += numReadings;
+                                    if (readings / STEPS_BETWEEN_UPDATE != before / STEPS_BETWEEN_UPDATE) {
+                                        extractor.updateFeatures();
+                                        return extractor.getPeriodLag(MultiChannelFeatureExtractor.GYRO_X);
+                                    }
+                                    return 0;
+                                }
+                            });
+                }
+            }
+            //one channel, magnitude only
+            final SensorFeatureEngine features = new SensorFeatureEngine(historyLen, PERIOD_HISTORY_LEN);
+            features.setSpectralMode(SensorFeatureEngine.SpectralMode.SLIDING_DFT);
+            features.setAutocorrelationLags(2, historyLen / 2);
+            measure("MAGNITUDE_ONLY", historyLen, 1, warmupMS, measureMS, threadBean, canCountBytes, new Case() {
+                int pos;
+                long readings;
+                long timeNanos;
+
+                @Override
+                double run(int numReadings) {
+                    features.addSample(magnitudes[pos], timeNanos += SAMPLE_INTERVAL_NANOS);
+                    if (++pos == SIGNAL_LEN) pos = 0;
+                    if (readings++ % STEPS_BETWEEN_UPDATE == 0) {
+                        features.updateSpectralData();
+                        return features.findPeakPeriodAutocorrelation() + features.getSpectralFlatness();
+                    }
+                    return 0;
+                }
+            });
+        }
+    }
+
+    static abstract class Case {
+        /**
+         * Adds numReadings readings, updating the features as often as the compositions would.
+         */
+        abstract double run(int numReadings);
+    }
+
+    static void measure(String name, int historyLen, int blockSize, long warmupMS, long measureMS,
+                        ThreadMXBean threadBean, boolean canCountBytes, Case c) {
+        //warm up, and size the batches so the clock is read about every millisecond
+        long readings = 0;
+        double result = 0;
+        long start = System.nanoTime();
+        long end = start + warmupMS * 1000000L;
+        while (System.nanoTime() < end) {
+            result += c.run(blockSize);
+            readings += blockSize;
+        }
+        long blocksPerMS = Math.max(1, readings / blockSize * 1000000L / (System.nanoTime() - start));
+        readings = 0;
+        long bytesBefore = FeatureBenchmark.allocatedBytes(threadBean, canCountBytes);
+        start = System.nanoTime();
+        end = start + measureMS * 1000000L;
+        long now;
+        do {
+            for (long i = 0; i < blocksPerMS; i++) {
+                result += c.run(blockSize);
+            }
+            readings += blocksPerMS * blockSize;
+            now = System.nanoTime();
+        } while (now < end);
+        long bytes = FeatureBenchmark.allocatedBytes(threadBean, canCountBytes) - bytesBefore;
+        sink = result;
+        System.out.println(name + "," + historyLen + "," + blockSize + ","
+                + String.format("%.1f", (now - start) / (double) readings) + ","
+                + (canCountBytes ? String.format("%.2f", bytes / (double) readings) : "-1"));
+    }
+
+    /**
+     * Runs both kernels over the signal and checks every feature of every channel matches exactly.
+     */
+    static boolean kernelsAgree(int historyLen, float[][] signal) {
+        MultiChannelFeatureExtractor fused = new MultiChannelFeatureExtractor(historyLen, 2, historyLen / 2,
+                MultiChannelFeatureExtractor.Kernel.FUSED);
+        MultiChannelFeatureExtractor perChannel = new MultiChannelFeatureExtractor(historyLen, 2, historyLen / 2,
+                MultiChannelFeatureExtractor.Kernel.PER_CHANNEL);
+        float[] reading = new float[MultiChannelFeatureExtractor.NUM_CHANNELS];
+        for (int i = 0; i < historyLen * 4; i++) {
+            for (int c = 0; c < reading.length; c++) {
+                reading[c] = signal[c][i];
+            }
+            fused.addSample(reading);
+            perChannel.addSample(reading);
+            if (i % STEPS_BETWEEN_UPDATE == 0) {
+                fused.updateFeatures();
+                perChannel.updateFeatures();
+                for (int c = 0; c < reading.length; c++) {
+                    if (fused.getEnergy(c) != perChannel.getEnergy(c)
+                            || Float.compare(fused.getFlatness(c), perChannel.getFlatness(c)) != 0
+                            || fused.getPeriodLag(c) != perChannel.getPeriodLag(c)
+                            || fused.getConfidence(c) != perChannel.getConfidence(c)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,375 @@
+package my_classes;
+
+/**
+ * Energy, spectral flatness and autocorrelation period for all six accelerometer and gyro axes, rather than for
+ * the single gyro magnitude that {@link SensorFeatureEngine} tracks.
+ * <p>
+ * The {@link Kernel#FUSED} kernel keeps all its state structure-of-arrays with the six channels side by side,
+ * like lanes of a vector: history[pos * NUM_CHANNELS + c], the sliding DFT bins re[h * NUM_CHANNELS + c] and the
+ * lag sums lagSums[k * NUM_CHANNELS + c]. A reading is then one pass over the bins and one over the lags for all
+ * channels together, each twiddle and window slot is loaded once for six channels, and removing the products of
+ * the oldest reading is folded into the same pass as adding those of the newest. The channel lanes are unrolled
+ * by hand into locals, there being no vector API on the Java versions HB runs on. The {@link Kernel#PER_CHANNEL}
+ * kernel is the plain fallback, six independent {@link SlidingDFT} and {@link AutocorrelationPeriodEstimator}
+ * instances. Both give identical features, see {@link MultiChannelBenchmark}. All storage is allocated up front.
+ */
+public class MultiChannelFeatureExtractor {
+
+    public enum Kernel {
+        FUSED,          //all channels in one pass over interleaved state
+        PER_CHANNEL     //one pass per channel over separate state
+    }
+
+    public static final int NUM_CHANNELS = 6;
+    public static final int ACCEL_X = 0, ACCEL_Y = 1, ACCEL_Z = 2, GYRO_X = 3, GYRO_Y = 4, GYRO_Z = 5;
+
+    static final int NC = NUM_CHANNELS;
+
+    final Kernel kernel;
+    final int historyLen;
+    final int halfLen;
+    final int minLag;
+    final int maxLag;
+    int writePos;
+    int count;
+
+    //fused state, channels interleaved
+    final double[] history;
+    final double[] twiddleRe;
+    final double[] twiddleIm;
+    final double[] re;
+    final double[] im;
+    final double dampingPowSize;
+    final int[] window;                 //quantised history
+    final long[] lagSums;
+    final long[] sums;
+    final double[] in = new double[NC];
+    final long[] quantised = new long[NC];
+    final double[] arithMeans = new double[NC];
+    final double[] geomMeans = new double[NC];
+
+    //per channel state
+    final double[][] channelHistory;
+    final SlidingDFT[] slidingDFTs;
+    final AutocorrelationPeriodEstimator[] estimators;
+    final double[] powerSpectrum;
+
+    final float[] correlation;          //scratch for one channel's normalised autocorrelation
+
+    final float[] energy = new float[NC];
+    final float[] flatness = new float[NC];
+    final float[] periodLag = new float[NC];
+    final float[] confidence = new float[NC];
+
+    /**
+     * @param historyLen the number of readings the features are taken over.
+     * @param minLag     the shortest period in readings.
+     * @param maxLag     the longest period in readings, less than historyLen.
+     */
+    public MultiChannelFeatureExtractor(int historyLen, int minLag, int maxLag, Kernel kernel) {
+        if (maxLag >= historyLen || minLag < 1 || minLag > maxLag) {
+            throw new IllegalArgumentException("Need 1 <= minLag <= maxLag < historyLen");
+        }
+        this.kernel = kernel;
+        this.historyLen = historyLen;
+        halfLen = historyLen / 2;
+        this.minLag = minLag;
+        this.maxLag = maxLag;
+        correlation = new float[maxLag + 1];
+        if (kernel == Kernel.FUSED) {
+            history = new double[historyLen * NC];
+            twiddleRe = new double[halfLen];
+            twiddleIm = new double[halfLen];
+            for (int h = 0; h < halfLen; h++) {
+                //same twiddles as SlidingDFT
+                double angle = -2 * Math.PI * (h + 0.5) / historyLen;
+                twiddleRe[h] = SlidingDFT.DAMPING * Math.cos(angle);
+                twiddleIm[h] = SlidingDFT.DAMPING * Math.sin(angle);
+            }
+            re = new double[halfLen * NC];
+            im = new double[halfLen * NC];
+            dampingPowSize = Math.pow(SlidingDFT.DAMPING, historyLen);
+            window = new int[historyLen * NC];
+            lagSums = new long[(maxLag + 1) * NC];
+            sums = new long[NC];
+            channelHistory = null;
+            slidingDFTs = null;
+            estimators = null;
+            powerSpectrum = null;
+        } else {
+            channelHistory = new double[NC][historyLen];
+            slidingDFTs = new SlidingDFT[NC];
+            estimators = new AutocorrelationPeriodEstimator[NC];
+            for (int c = 0; c < NC; c++) {
+                slidingDFTs[c] = new SlidingDFT(historyLen);
+                estimators[c] = new AutocorrelationPeriodEstimator(historyLen, minLag, maxLag);
+            }
+            powerSpectrum = new double[halfLen];
+            history = null;
+            twiddleRe = null;
+            twiddleIm = null;
+            re = null;
+            im = null;
+            dampingPowSize = 0;
+            window = null;
+            lagSums = null;
+            sums = null;
+        }
+    }
+
+    /**
+     * Adds one six axis reading, ordered ACCEL_X to GYRO_Z.
+     */
+    public void addSample(float[] reading) {
+        if (kernel == Kernel.FUSED) {
+            addFused(reading, null, 0);
+        } else {
+            addPerChannel(reading, null, 0);
+        }
+    }
+
+    /**
+     * Adds a block of readings given as one array per channel, channels[c][i] for i below numReadings.
+     */
+    public void addSamples(float[][] channels, int numReadings) {
+        for (int i = 0; i < numReadings; i++) {
+            if (kernel == Kernel.FUSED) {
+                addFused(null, channels, i);
+            } else {
+                addPerChannel(null, channels, i);
+            }
+        }
+    }
+
+    private void addFused(float[] reading, float[][] channels, int index) {
+        int slot = writePos * NC;
+        for (int c = 0; c < NC; c++) {
+            float value = reading != null ? reading[c] : channels[c][index];
+            in[c] = value + dampingPowSize * history[slot + c];
+            history[slot + c] = value;
+            int q = Math.round(value * AutocorrelationPeriodEstimator.QUANTISATION);
+            quantised[c] = Math.max(-AutocorrelationPeriodEstimator.QUANTISED_MAX,
+                    Math.min(AutocorrelationPeriodEstimator.QUANTISED_MAX, q));
+        }
+        //the lanes are unrolled into locals, the JIT will not keep array values in registers across stores to
+        //another array of the same type in case they alias
+        double in0 = in[0], in1 = in[1], in2 = in[2], in3 = in[3], in4 = in[4], in5 = in[5];
+        //slide the DFT of every channel, one twiddle load per bin
+        for (int h = 0, o = 0; h < halfLen; h++, o += NC) {
+            double tr = twiddleRe[h];
+            double ti = twiddleIm[h];
+            double r0 = re[o], r1 = re[o + 1], r2 = re[o + 2], r3 = re[o + 3], r4 = re[o + 4], r5 = re[o + 5];
+            double i0 = im[o], i1 = im[o + 1], i2 = im[o + 2], i3 = im[o + 3], i4 = im[o + 4], i5 = im[o + 5];
+            re[o] = in0 + tr * r0 - ti * i0;
+            re[o + 1] = in1 + tr * r1 - ti * i1;
+            re[o + 2] = in2 + tr * r2 - ti * i2;
+            re[o + 3] = in3 + tr * r3 - ti * i3;
+            re[o + 4] = in4 + tr * r4 - ti * i4;
+            re[o + 5] = in5 + tr * r5 - ti * i5;
+            im[o] = tr * i0 + ti * r0;
+            im[o + 1] = tr * i1 + ti * r1;
+            im[o + 2] = tr * i2 + ti * r2;
+            im[o + 3] = tr * i3 + ti * r3;
+            im[o + 4] = tr * i4 + ti * r4;
+            im[o + 5] = tr * i5 + ti * r5;
+        }
+        long q0 = quantised[0], q1 = quantised[1], q2 = quantised[2],
+                q3 = quantised[3], q4 = quantised[4], q5 = quantised[5];
+        long old0 = 0, old1 = 0, old2 = 0, old3 = 0, old4 = 0, old5 = 0;
+        if (count == historyLen) {
+            old0 = window[slot];
+            old1 = window[slot + 1];
+            old2 = window[slot + 2];
+            old3 = window[slot + 3];
+            old4 = window[slot + 4];
+            old5 = window[slot + 5];
+        } else {
+            count++;
+        }
+        //lag 0, the oldest reading leaves and the newest arrives in the same slot
+        lagSums[0] += q0 * q0 - old0 * old0;
+        lagSums[1] += q1 * q1 - old1 * old1;
+        lagSums[2] += q2 * q2 - old2 * old2;
+        lagSums[3] += q3 * q3 - old3 * old3;
+        lagSums[4] += q4 * q4 - old4 * old4;
+        lagSums[5] += q5 * q5 - old5 * old5;
+        for (int c = 0; c < NC; c++) {
+            sums[c] += quantised[c] - window[slot + c];
+            window[slot + c] = (int) quantised[c];
+        }
+        //every other lag in one pass, removing the products of the oldest readings with the readings that
+        //followed them and adding those of the newest with the readings that preceded them. Until the window
+        //is full the oldest are zero, as are the slots before the first reading
+        int wrap = historyLen * NC;
+        int later = slot + NC;
+        if (later == wrap) later = 0;
+        int earlier = slot == 0 ? wrap - NC : slot - NC;
+        for (int o = NC, end = (maxLag + 1) * NC; o < end; o += NC) {
+            lagSums[o] += q0 * window[earlier] - old0 * window[later];
+            lagSums[o + 1] += q1 * window[earlier + 1] - old1 * window[later + 1];
+            lagSums[o + 2] += q2 * window[earlier + 2] - old2 * window[later + 2];
+            lagSums[o + 3] += q3 * window[earlier + 3] - old3 * window[later + 3];
+            lagSums[o + 4] += q4 * window[earlier + 4] - old4 * window[later + 4];
+            lagSums[o + 5] += q5 * window[earlier + 5] - old5 * window[later + 5];
+            later += NC;
+            if (later == wrap) later = 0;
+            earlier -= NC;
+            if (earlier < 0) earlier = wrap - NC;
+        }
+        if (++writePos == historyLen) writePos = 0;
+    }
+
+    private void addPerChannel(float[] reading, float[][] channels, int index) {
+        for (int c = 0; c < NC; c++) {
+            float value = reading != null ? reading[c] : channels[c][index];
+            slidingDFTs[c].update(value, channelHistory[c][writePos]);
+            channelHistory[c][writePos] = value;
+            estimators[c].addSample(value);
+        }
+        if (count < historyLen) count++;
+        if (++writePos == historyLen) writePos = 0;
+    }
+
+    /**
+     * Recomputes the energy, flatness and period of every channel from the current history. Costs
+     * O(NUM_CHANNELS * (historyLen / 2 + maxLag)), so call it at the analysis rate rather than per reading.
+     */
+    public void updateFeatures() {
+        if (kernel == Kernel.FUSED) {
+            updateFused();
+        } else {
+            updatePerChannel();
+        }
+    }
+
+    private void updateFused() {
+        //flatness of every channel in one pass over the bins, same power spectrum as SlidingDFT. The six running
+        //sums and products are independent so they overlap rather than each waiting on the last bin
+        for (int c = 0; c < NC; c++) {
+            double r = re[c];
+            double p = r * r;
+            arithMeans[c] = p;
+            geomMeans[c] = p;
+        }
+        for (int o = NC, end = halfLen * NC; o < end; o += NC) {
+            for (int c = 0; c < NC; c++) {
+                double r = 0.5 * (re[o - NC + c] + re[o + c]);
+                double i = 0.5 * (im[o - NC + c] + im[o + c]);
+                double p = r * r + i * i;
+                arithMeans[c] += p;
+                geomMeans[c] *= p;
+            }
+        }
+        for (int c = 0; c < NC; c++) {
+            flatness[c] = flatness(arithMeans[c], geomMeans[c]);
+            energy[c] = count == 0 ? 0 : (float) (lagSums[c] / (double) count
+                    / (AutocorrelationPeriodEstimator.QUANTISATION * AutocorrelationPeriodEstimator.QUANTISATION));
+            findPeriodFused(c);
+        }
+    }
+
+    /**
+     * The same normalisation as {@link AutocorrelationPeriodEstimator#findPeriod()}, reading one channel out of
+     * the interleaved window and lag sums.
+     */
+    private void findPeriodFused(int c) {
+        periodLag[c] = 0;
+        confidence[c] = 0;
+        if (count <= maxLag) {
+            return;
+        }
+        long sum = sums[c];
+        long sumSq = lagSums[c];
+        double mean = sum / (double) count;
+        if (sumSq / (double) count - mean * mean <= AutocorrelationPeriodEstimator.MIN_VARIANCE) {
+            return;
+        }
+        int oldPos = writePos - count;
+        if (oldPos < 0) oldPos += historyLen;
+        int newPos = writePos == 0 ? historyLen - 1 : writePos - 1;
+        long oldSum = 0, oldSq = 0, newSum = 0, newSq = 0;
+        for (int k = 1; k <= maxLag; k++) {
+            long old = window[oldPos * NC + c];
+            long young = window[newPos * NC + c];
+            oldSum += old;
+            oldSq += old * old;
+            newSum += young;
+            newSq += young * young;
+            if (++oldPos == historyLen) oldPos = 0;
+            if (--newPos < 0) newPos = historyLen - 1;
+            int n = count - k;
+            double lateSum = sum - oldSum;
+            double earlySum = sum - newSum;
+            double covariance = lagSums[k * NC + c] - mean * (lateSum + earlySum) + n * mean * mean;
+            double lateVar = (sumSq - oldSq) - 2 * mean * lateSum + n * mean * mean;
+            double earlyVar = (sumSq - newSq) - 2 * mean * earlySum + n * mean * mean;
+            double norm = lateVar * earlyVar;
+            correlation[k] = norm > 0 ? (float) (covariance / Math.sqrt(norm)) : 0;
+        }
+        int bestLag = AutocorrelationPeriodEstimator.findPeakLag(correlation, minLag, maxLag);
+        if (bestLag < 0) {
+            return;
+        }
+        periodLag[c] = AutocorrelationPeriodEstimator.refineLag(correlation, bestLag);
+        confidence[c] = Math.min(correlation[bestLag], 1);
+    }
+
+    private void updatePerChannel() {
+        for (int c = 0; c < NC; c++) {
+            slidingDFTs[c].powerSpectrum(powerSpectrum);
+            double arithMean = 0;
+            double geomMean = 1;
+            for (int k = 0; k < halfLen; k++) {
+                arithMean += powerSpectrum[k];
+                geomMean *= powerSpectrum[k];
+            }
+            flatness[c] = flatness(arithMean, geomMean);
+            AutocorrelationPeriodEstimator estimator = estimators[c];
+            energy[c] = estimator.getMeanSquare();
+            estimator.findPeriod();
+            periodLag[c] = estimator.getPeriodLag();
+            confidence[c] = estimator.getConfidence();
+        }
+    }
+
+    private float flatness(double powerSum, double powerProduct) {
+        //as in SensorFeatureEngine, geometric over arithmetic mean of the power spectrum
+        return (float) (Math.pow(powerProduct, 1. / halfLen) / (powerSum / halfLen));
+    }
+
+    public Kernel getKernel() {
+        return kernel;
+    }
+
+    public int getHistoryLen() {
+        return historyLen;
+    }
+
+    /**
+     * @return the mean square of the channel over the history, from the last {@link #updateFeatures()}.
+     */
+    public float getEnergy(int channel) {
+        return energy[channel];
+    }
+
+    /**
+     * @return the spectral flatness of the channel, near 0 for a pure swing and near 1 for noise.
+     */
+    public float getFlatness(int channel) {
+        return flatness[channel];
+    }
+
+    /**
+     * @return the period of the channel in readings, zero if it has none.
+     */
+    public float getPeriodLag(int channel) {
+        return periodLag[channel];
+    }
+
+    /**
+     * @return the normalised autocorrelation at the channel's period, from 0 to 1.
+     */
+    public float getConfidence(int channel) {
+        return confidence[channel];
+    }
+}
@@ -0,0 +1,147 @@
+package my_classes;
+
+import net.beadsproject.beads.core.AudioContext;
+import net.beadsproject.beads.core.Bead;
+import net.beadsproject.beads.core.UGen;
+import net.beadsproject.beads.core.io.NonrealtimeIO;
+import net.beadsproject.beads.ugens.RecordToFile;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Times and fingerprints a non-realtime render, for measuring how much a graph costs, and for comparing its
+ * output between versions, with no Jack or audio hardware.
+ * <p>
+ * The rendering itself is Beads' own: a context on a {@link NonrealtimeIO}, run with
+ * {@link AudioContext#runForNMillisecondsNonRealTime(double)} or {@link AudioContext#runNonRealTime()}, which
+ * render on the calling thread as fast as the CPU allows. This adds what those do not give: the wall time, the
+ * blocks per second and the realtime factor (seconds of audio rendered per second of wall time), and a hash of
+ * every output sample taken after each frame, so two renders of the same graph with the same seed can be checked
+ * for identical output without keeping the files. A realtime factor of 10 means the graph uses about a tenth of a
+ * core when run live. The output can also be written to a file with a {@link RecordToFile}, as the realtime
+ * tests do.
+ * <p>
+ * Usage: ac = OfflineRenderer.newContext(bufferSize), build the graph, new OfflineRenderer(ac), render(ms), then
+ * {@link #report}.
+ */
+public class OfflineRenderer extends Bead {
+
+    final AudioContext ac;
+    RecordToFile recorder;
+    long numFrames;
+    long renderNanos;
+    long checksum = 1;
+
+    /**
+     * @return a context that renders only when run in non-realtime, with the default format.
+     */
+    public static AudioContext newContext(int bufferSize) {
+        return new AudioContext(new NonrealtimeIO(), bufferSize);
+    }
+
+    /**
+     * @param ac a context on a {@link NonrealtimeIO}, e.g. from {@link #newContext(int)}.
+     */
+    public OfflineRenderer(AudioContext ac) {
+        this.ac = ac;
+        ac.invokeAfterEveryFrame(this);
+    }
+
+    /**
+     * Writes the output to a file as well, closed when rendering ends.
+     */
+    public OfflineRenderer recordTo(File file) throws IOException {
+        recorder = new RecordToFile(ac, ac.out.getOuts(), file);
+        recorder.addInput(ac.out);
+        ac.out.addDependent(recorder);
+        return this;
+    }
+
+    @Override
+    protected void messageReceived(Bead message) {
+        //after each frame, on the rendering thread
+        UGen mix = ac.out;
+        int bufferSize = ac.getBufferSize();
+        long h = checksum;
+        for (int i = 0; i < mix.getOuts(); i++) {
+            float[] buf = mix.getOutBuffer(i);
+            for (int j = 0; j < bufferSize; j++) {
+                h = h * 31 + Float.floatToIntBits(buf[j]);
+            }
+        }
+        checksum = h;
+        numFrames++;
+    }
+
+    /**
+     * Renders ms of audio, or less if something stops the context first, and returns when done.
+     */
+    public void render(double ms) {
+        long start = System.nanoTime();
+        ac.runForNMillisecondsNonRealTime(ms);
+        finish(start);
+    }
+
+    /**
+     * Renders until something in the graph stops the context, e.g. a benchmark that has its answer.
+     */
+    public void renderUntilStopped() {
+        long start = System.nanoTime();
+        ac.runNonRealTime();
+        finish(start);
+    }
+
+    private void finish(long start) {
+        renderNanos += System.nanoTime() - start;
+        if (recorder != null) {
+            recorder.kill();
+            recorder = null;
+        }
+    }
+
+    public long getNumFrames() {
+        return numFrames;
+    }
+
+    /**
+     * @return the wall time spent rendering, in seconds.
+     */
+    public double getRenderSeconds() {
+        return renderNanos / 1e9;
+    }
+
+    /**
+     * @return the seconds of audio rendered.
+     */
+    public double getAudioSeconds() {
+        return numFrames * (double) ac.getBufferSize() / ac.getSampleRate();
+    }
+
+    public double getBlocksPerSecond() {
+        return renderNanos == 0 ? 0 : numFrames / getRenderSeconds();
+    }
+
+    /**
+     * @return the seconds of audio rendered per second of wall time, above 1 for faster than real time.
+     */
+    public double getRealtimeFactor() {
+        return renderNanos == 0 ? 0 : getAudioSeconds() / getRenderSeconds();
+    }
+
+    /**
+     * @return a hash of every output sample, the same for two renders only if their output is identical.
+     */
+    public long getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @return a one line summary of the render.
+     */
+    public String report() {
+        return String.format("offline: frames=%d audio=%.2fs wall=%.3fs blocks/s=%.1f realtime=%.2fx checksum=%016x",
+                numFrames, getAudioSeconds(), getRenderSeconds(), getBlocksPerSecond(), getRealtimeFactor(),
+                checksum);
+    }
+}
@@ -0,0 +1,279 @@
+package my_classes;
+
+import net.beadsproject.beads.core.AudioContext;
+import net.beadsproject.beads.core.UGen;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Mixes independent groups of voices, e.g. {@link VoicePool}s, rendering them on several cores at once instead of
+ * all on the audio thread.
+ * <p>
+ * The groups are {@link Source}s rather than UGens, because updating a Beads UGen off the audio thread is not
+ * safe: a UGen on the default JUNK or ZERO OutputInitializationRegime takes its output buffers from the context
+ * each frame, with no locking, and so does everything it pulls in. A source renders a block by adding it to an
+ * array it is given, touching nothing but its own state, so a worker never calls into the graph.
+ * <p>
+ * The sources are split round robin into one partition per thread. Each block the audio thread hands the
+ * partitions to a fixed set of worker threads, renders the first itself, waits for the others and sums the
+ * partitions in order. The handoff is a volatile block counter the workers wait on, and an atomic count of
+ * partitions still rendering the audio thread waits on, so nothing locks, and everything a source changed on one
+ * side is seen on the other. Workers spin briefly for the next block and then park, so they cost nothing while
+ * the mix is idle. Each partition always sums its own sources in order, and the partitions are summed in the same
+ * order, so for a given number of threads the output is the same to the bit whichever threads render it and
+ * whether or not it renders in parallel.
+ * <p>
+ * Handing off costs some microseconds per block, so while the partitions together take less than the parallel
+ * threshold, by default PARALLEL_ABOVE_FRACTION of the block's deadline, it renders them one after another on the
+ * audio thread, and only goes parallel once they take longer. It goes back below half the threshold.
+ * <p>
+ * Add and remove sources, and change them, e.g. start voices, on the audio thread, or before it starts. Call
+ * {@link #kill} or {@link #shutdown} to stop the workers. {@link ParallelMixBenchmark} measures the speed-up.
+ */
+public class ParallelMix extends UGen {
+
+    public static final float PARALLEL_ABOVE_FRACTION = 0.1f;
+    static final int WORKER_SPINS = 20000;      //before parking until the next block
+    static final int WAIT_SPINS = 1000;         //before the audio thread yields while it waits
+
+    /**
+     * Something that renders a block at a time without the graph, so that it can render on any thread.
+     */
+    public interface Source {
+
+        int getOuts();
+
+        /**
+         * Renders the next block and adds it to out, which has the mix's number of channels. It may read and
+         * change only the source's own state, and must not update a UGen or take buffers from the context.
+         */
+        void addBlock(float[][] out);
+    }
+
+    class Partition {
+        final List<Source> sources = new ArrayList<>();
+        final float[][] mix = new float[outs][bufferSize];
+        long renderNanos;
+
+        void render() {
+            long start = System.nanoTime();
+            for (float[] buf : mix) {
+                for (int j = 0; j < bufferSize; j++) {
+                    buf[j] = 0;
+                }
+            }
+            for (int s = 0; s < sources.size(); s++) {
+                sources.get(s).addBlock(mix);
+            }
+            renderNanos = System.nanoTime() - start;
+        }
+    }
+
+    class Worker extends Thread {
+        final Partition partition;
+        volatile boolean parked;
+        long block;
+
+        Worker(Partition partition, int index) {
+            super("ParallelMix-" + index);
+            this.partition = partition;
+            setDaemon(true);
+            setPriority(MAX_PRIORITY);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                int spins = 0;
+                while (blockNumber == block && running) {
+                    if (++spins < WORKER_SPINS) {
+                        continue;
+                    }
+                    //the audio thread checks parked after moving blockNumber on, so one of us sees the other
+                    parked = true;
+                    if (blockNumber == block && running) {
+                        LockSupport.park(this);
+                    }
+                    parked = false;
+                }
+                if (blockNumber == block) {
+                    //shut down, with no block left to render
+                    break;
+                }
+                block = blockNumber;
+                try {
+                    partition.render();
+                } catch (RuntimeException e) {
+                    //still report done, or the audio thread waits forever
+                    e.printStackTrace();
+                }
+                remaining.decrementAndGet();
+            }
+        }
+    }
+
+    final Partition[] partitions;
+    final Worker[] workers;
+    final AtomicInteger remaining = new AtomicInteger();
+    volatile long blockNumber;
+    volatile boolean running = true;
+    long parallelAboveNanos;
+    boolean parallel;
+    int nextPartition;
+    long numParallelBlocks, numSequentialBlocks;
+
+    /**
+     * Mixes on as many threads as there are cores.
+     */
+    public ParallelMix(AudioContext context, int outs) {
+        this(context, outs, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param numThreads the number of partitions, and threads to render them including the audio thread.
+     */
+    public ParallelMix(AudioContext context, int outs, int numThreads) {
+        super(context, 0, outs);
+        partitions = new Partition[Math.max(1, numThreads)];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new Partition();
+        }
+        parallelAboveNanos = (long) (PARALLEL_ABOVE_FRACTION * context.samplesToMs(bufferSize) * 1e6);
+        workers = new Worker[partitions.length - 1];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(partitions[i + 1], i + 1);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Adds a source to the next partition in turn.
+     */
+    public ParallelMix addSource(Source source) {
+        if (source.getOuts() != outs) {
+            throw new IllegalArgumentException("Source has " + source.getOuts() + " outputs, the mix has " + outs);
+        }
+        partitions[nextPartition].sources.add(source);
+        nextPartition = (nextPartition + 1) % partitions.length;
+        return this;
+    }
+
+    public boolean removeSource(Source source) {
+        for (Partition p : partitions) {
+            if (p.sources.remove(source)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param nanos the render time per block above which to go parallel, 0 for always, Long.MAX_VALUE for never.
+     */
+    public ParallelMix setParallelAbove(long nanos) {
+        parallelAboveNanos = nanos;
+        parallel = nanos == 0;
+        return this;
+    }
+
+    @Override
+    public void calculateBuffer() {
+        if (parallel && workers.length > 0) {
+            remaining.set(workers.length);
+            //publishes the sources and buffers to the workers
+            blockNumber++;
+            for (Worker w : workers) {
+                if (w.parked) {
+                    LockSupport.unpark(w);
+                }
+            }
+            partitions[0].render();
+            int spins = 0;
+            while (remaining.get() > 0) {
+                if (++spins > WAIT_SPINS) {
+                    if (!running && !workersAlive()) {
+                        //shut down before the workers saw this block
+                        break;
+                    }
+                    Thread.yield();
+                }
+            }
+            numParallelBlocks++;
+        } else {
+            for (Partition p : partitions) {
+                p.render();
+            }
+            numSequentialBlocks++;
+        }
+        long work = 0;
+        for (int i = 0; i < outs; i++) {
+            float[] out = bufOut[i];
+            System.arraycopy(partitions[0].mix[i], 0, out, 0, bufferSize);
+            for (int p = 1; p < partitions.length; p++) {
+                float[] buf = partitions[p].mix[i];
+                for (int j = 0; j < bufferSize; j++) {
+                    out[j] += buf[j];
+                }
+            }
+        }
+        for (Partition p : partitions) {
+            work += p.renderNanos;
+        }
+        parallel = parallel ? work > parallelAboveNanos / 2 : work > parallelAboveNanos;
+    }
+
+    /**
+     * Stops the worker threads. Blocks after this render on the audio thread alone.
+     */
+    public void shutdown() {
+        running = false;
+        for (Worker w : workers) {
+            LockSupport.unpark(w);
+        }
+        parallelAboveNanos = Long.MAX_VALUE;
+        parallel = false;
+    }
+
+    private boolean workersAlive() {
+        for (Worker w : workers) {
+            if (w.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void kill() {
+        shutdown();
+        super.kill();
+    }
+
+    public int getNumThreads() {
+        return partitions.length;
+    }
+
+    /**
+     * @return true if the last block was rendered in parallel.
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public long getNumParallelBlocks() {
+        return numParallelBlocks;
+    }
+
+    public long getNumSequentialBlocks() {
+        return numSequentialBlocks;
+    }
+
+    @Override
+    public String toString() {
+        return "threads=" + partitions.length + " parallelBlocks=" + numParallelBlocks + " sequentialBlocks="
+                + numSequentialBlocks;
+    }
+}
@@ -0,0 +1,89 @@
+package my_classes;
+
+import net.beadsproject.beads.core.AudioContext;
+import net.beadsproject.beads.core.Bead;
+import net.beadsproject.beads.data.Sample;
+
+import java.util.Random;
+
+/**
+ * Measures how much faster {@link ParallelMix} renders a bank of {@link VoicePool}s on several threads than on the
+ * audio thread alone, and checks that the output is the same either way.
+ * <p>
+ * For each thread count from 1 to the number of cores it renders the same notes twice in non-realtime with
+ * {@link OfflineRenderer}, once kept on the audio thread and once always in parallel, with a pool per thread and
+ * every voice kept playing, as in SSTest under full load. Prints CSV, one row per thread count, with both
+ * realtime factors, the speed-up and whether the two renders hashed the same, and exits with status 1 if any
+ * pair differed.
+ * <p>
+ * Usage: ParallelMixBenchmark [voices] [bufferSize] [seconds]
+ */
+public class ParallelMixBenchmark {
+
+    static final double WARMUP_SECONDS = 5;
+    static final long SEED = 1;
+
+    public static void main(String[] args) {
+        int voices = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int bufferSize = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 20;
+        int cores = Runtime.getRuntime().availableProcessors();
+        String device = VoiceCapacityBenchmark.deviceModel();
+        //let the JIT settle before the first row
+        render(voices, bufferSize, WARMUP_SECONDS, cores, true);
+        System.out.println("device,voices,bufferSize,threads,sequentialRealtime,parallelRealtime,speedup,identical");
+        int failures = 0;
+        for (int threads = 1; threads <= cores; threads++) {
+            OfflineRenderer sequential = render(voices, bufferSize, seconds, threads, false);
+            OfflineRenderer parallel = render(voices, bufferSize, seconds, threads, true);
+            boolean identical = sequential.getChecksum() == parallel.getChecksum();
+            if (!identical) {
+                failures++;
+            }
+            System.out.println(String.format("%s,%d,%d,%d,%.2f,%.2f,%.2f,%b", device, voices / threads * threads,
+                    bufferSize, threads, sequential.getRealtimeFactor(), parallel.getRealtimeFactor(),
+                    parallel.getRealtimeFactor() / sequential.getRealtimeFactor(), identical));
+        }
+        if (failures > 0) {
+            System.out.println("FAIL: " + failures + " thread counts rendered differently in parallel");
+            System.exit(1);
+        }
+        System.out.println("OK: parallel output matches sequential");
+    }
+
+    /**
+     * Renders voices split over a pool per thread, each voice restarted at a random point of the test sample as
+     * soon as it ends, with the same notes for the same thread count.
+     *
+     * @param parallel true to render in parallel every block, false to keep every block on the audio thread.
+     */
+    static OfflineRenderer render(int voices, int bufferSize, double seconds, int threads, boolean parallel) {
+        AudioContext ac = OfflineRenderer.newContext(bufferSize);
+        final Sample sample = VoiceCapacityBenchmark.testSample(ac);
+        ParallelMix mix = new ParallelMix(ac, 2, threads);
+        mix.setParallelAbove(parallel ? 0 : Long.MAX_VALUE);
+        final VoicePool[] pools = new VoicePool[threads];
+        for (int i = 0; i < threads; i++) {
+            pools[i] = new VoicePool(ac, voices / threads, VoicePool.StealPolicy.OLDEST);
+            mix.addSource(pools[i]);
+        }
+        ac.out.addInput(mix);
+        ac.out.setGain(1f / voices);
+        final Random rng = new Random(SEED);
+        ac.invokeBeforeEveryFrame(new Bead() {
+            @Override
+            protected void messageReceived(Bead message) {
+                //on the audio thread, between blocks
+                for (VoicePool pool : pools) {
+                    while (pool.getNumIdle() > 0) {
+                        pool.play(sample, rng.nextDouble() * VoiceCapacityBenchmark.SAMPLE_MS, 1, rng.nextFloat());
+                    }
+                }
+            }
+        });
+        OfflineRenderer renderer = new OfflineRenderer(ac);
+        renderer.render(seconds * 1000);
+        mix.kill();
+        return renderer;
+    }
+}
@@ -0,0 +1,91 @@
+package my_classes;
+
+import net.beadsproject.beads.core.UGen;
+import net.beadsproject.beads.data.Sample;
+import net.beadsproject.beads.ugens.SamplePlayer;
+
+import java.util.Arrays;
+
+/**
+ * A set of parameter values to apply to the audio graph in one go, e.g. everything a mode sets, built once up
+ * front so that switching to it does no lookups or allocation. It holds the UGens to set and their values, and
+ * optionally a sample and position for a {@link SamplePlayer}. Parameters not added are left as they are.
+ * <p>
+ * Build it on one thread before handing it to a {@link PresetSwitcher}, and do not change it afterwards.
+ */
+public class ParameterPreset {
+
+    final String name;
+    UGen[] targets = new UGen[8];
+    float[] values = new float[8];
+    int numValues;
+    SamplePlayer player;
+    Sample sample;
+    double position = -1;       //ms, -1 to leave the position alone
+
+    public ParameterPreset(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Adds a UGen to set to a value, usually a Glide or a player's parameter UGen.
+     */
+    public ParameterPreset set(UGen target, float value) {
+        if (numValues == targets.length) {
+            targets = Arrays.copyOf(targets, numValues * 2);
+            values = Arrays.copyOf(values, numValues * 2);
+        }
+        targets[numValues] = target;
+        values[numValues++] = value;
+        return this;
+    }
+
+    /**
+     * Sets the sample for the player, applied before the values.
+     */
+    public ParameterPreset sample(SamplePlayer player, Sample sample) {
+        this.player = player;
+        this.sample = sample;
+        return this;
+    }
+
+    /**
+     * Moves the player to a position, in ms, applied after the values so it lands inside any new loop points.
+     */
+    public ParameterPreset position(SamplePlayer player, double position) {
+        this.player = player;
+        this.position = position;
+        return this;
+    }
+
+    /**
+     * Applies everything. Call on the audio thread, between frames, as {@link PresetSwitcher} does.
+     */
+    public void apply() {
+        if (player != null && sample != null && player.getSample() != sample) {
+            player.setSample(sample);
+        }
+        for (int i = 0; i < numValues; i++) {
+            targets[i].setValue(values[i]);
+        }
+        if (player != null && position >= 0) {
+            player.setPosition(position);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of UGen values this preset sets.
+     */
+    public int size() {
+        return numValues;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,170 @@
+package my_classes;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hands values from other devices over from the thread that receives them to the analysis thread, keeping only
+ * the latest value of each field for each peer, so a burst of packets costs one update when the analysis thread
+ * gets to it rather than one per packet.
+ * <p>
+ * Each peer gets a slot the first time it posts, holding a float per field, the time of its last post and a bit
+ * per field that is set when a new value is waiting. The producer writes the value and then sets its bit, and
+ * the consumer clears a slot's bits before reading its values, so a value posted during a drain is either read
+ * then or left waiting for the next one, never lost. A value overwritten before it was drained is counted as
+ * coalesced. If every slot is taken, posts from further peers are dropped and counted. Only one thread may call
+ * {@link #post} and only one {@link #drain}.
+ */
+public class PeerMailbox {
+
+    public interface Consumer {
+        /**
+         * @param changed a bit per field that was posted since the last drain.
+         * @param values  the latest value of every field for this peer, NaN for fields never posted. Reused, so
+         *                only valid during the call.
+         */
+        void peerUpdated(int device, long timeNanos, int changed, float[] values);
+    }
+
+    final int capacity;
+    final int numFields;
+    final AtomicIntegerArray values;              //float bits, capacity * numFields
+    final AtomicLongArray times;
+    final AtomicIntegerArray changed;             //bits per slot, set by the producer, cleared by the consumer
+    final int[] devices;                          //written by the producer before numSlots is raised
+    final AtomicInteger numSlots = new AtomicInteger();
+    final AtomicInteger anyChanged = new AtomicInteger();
+    final float[] drained;                        //consumer's copy of one slot's values
+
+    //producer side
+    final int[] table;                            //open addressed, device to slot + 1, 0 for empty
+    final int tableMask;
+    volatile long numPosted, numCoalesced, numDropped;
+
+    /**
+     * @param capacity  the most peers to keep.
+     * @param numFields the number of values per peer, at most 32.
+     */
+    public PeerMailbox(int capacity, int numFields) {
+        if (numFields < 1 || numFields > 32) {
+            throw new IllegalArgumentException("numFields must be from 1 to 32: " + numFields);
+        }
+        this.capacity = capacity;
+        this.numFields = numFields;
+        values = new AtomicIntegerArray(capacity * numFields);
+        for (int i = 0; i < capacity * numFields; i++) {
+            values.set(i, Float.floatToRawIntBits(Float.NaN));
+        }
+        times = new AtomicLongArray(capacity);
+        changed = new AtomicIntegerArray(capacity);
+        devices = new int[capacity];
+        drained = new float[numFields];
+        int size = Integer.highestOneBit(Math.max(1, capacity * 2 - 1)) << 1;
+        table = new int[size];
+        tableMask = size - 1;
+    }
+
+    /**
+     * Posts a value for a peer, replacing any not yet drained. Producer thread only.
+     *
+     * @return false if the peer is new and there is no slot left for it.
+     */
+    public boolean post(int device, int field, float value, long timeNanos) {
+        int slot = slotFor(device);
+        if (slot < 0) {
+            numDropped++;
+            return false;
+        }
+        values.lazySet(slot * numFields + field, Float.floatToRawIntBits(value));
+        times.lazySet(slot, timeNanos);
+        int bit = 1 << field;
+        int old;
+        do {
+            old = changed.get(slot);
+        } while (!changed.compareAndSet(slot, old, old | bit));
+        if ((old & bit) != 0) {
+            numCoalesced++;
+        }
+        numPosted++;
+        anyChanged.set(1);
+        return true;
+    }
+
+    private int slotFor(int device) {
+        int i = (device * 0x9E3779B9) >>> 16 & tableMask;
+        while (table[i] != 0) {
+            int slot = table[i] - 1;
+            if (devices[slot] == device) {
+                return slot;
+            }
+            i = (i + 1) & tableMask;
+        }
+        int n = numSlots.get();
+        if (n == capacity) {
+            return -1;
+        }
+        devices[n] = device;
+        table[i] = n + 1;
+        numSlots.lazySet(n + 1);
+        return n;
+    }
+
+    /**
+     * Passes each peer with new values to the consumer. Consumer thread only.
+     *
+     * @return the number of peers passed.
+     */
+    public int drain(Consumer consumer) {
+        if (anyChanged.get() == 0 || anyChanged.getAndSet(0) == 0) {
+            return 0;
+        }
+        int n = numSlots.get();
+        int count = 0;
+        for (int slot = 0; slot < n; slot++) {
+            if (changed.get(slot) == 0) {
+                continue;
+            }
+            int bits = changed.getAndSet(slot, 0);
+            long time = times.get(slot);
+            for (int f = 0; f < numFields; f++) {
+                drained[f] = Float.intBitsToFloat(values.get(slot * numFields + f));
+            }
+            consumer.peerUpdated(devices[slot], time, bits, drained);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return true if there may be values waiting to be drained.
+     */
+    public boolean hasChanged() {
+        return anyChanged.get() != 0;
+    }
+
+    /**
+     * @return the number of peers that have posted, up to the capacity.
+     */
+    public int size() {
+        return numSlots.get();
+    }
+
+    public long getNumPosted() {
+        return numPosted;
+    }
+
+    /**
+     * @return the number of values replaced before they were drained.
+     */
+    public long getNumCoalesced() {
+        return numCoalesced;
+    }
+
+    /**
+     * @return the number of posts dropped because there was no slot for the peer.
+     */
+    public long getNumDropped() {
+        return numDropped;
+    }
+}
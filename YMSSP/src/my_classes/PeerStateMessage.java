@@ -0,0 +1,136 @@
+package my_classes;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The state one device broadcasts to the others after each analysis update, packed into a single OSC blob so
+ * that an update is one datagram, and neither end builds or parses strings per message.
+ * <p>
+ * The blob is a 4 byte header (magic, version, feature count), the sender's device index and sequence number,
+ * the send time from {@link net.happybrackets.device.HB#getSynchTime()}, the sender's mode, and the features as
+ * floats in the order of the feature index constants. A receiver drops blobs with the wrong magic or version, and
+ * reads as many features as both ends know about, so features can be appended without bumping the version.
+ * <p>
+ * Each end keeps its own instance and reuses it: {@link #encode} writes into one buffer that is sent as is, and
+ * {@link #decode} overwrites the fields. So an instance must only be used from one thread, and the array from
+ * encode must not be held on to past the next call.
+ */
+public class PeerStateMessage {
+
+    public static final String ADDRESS = "/ymssp/state";
+
+    public static final short MAGIC = 0x5950;      //"YP"
+    public static final byte VERSION = 1;
+    public static final int HEADER_BYTES = 24;
+
+    public static final int SENSOR_MAGNITUDE = 0;
+    public static final int PERIOD = 1;
+    public static final int INTEGRATED_PERIOD = 2;
+    public static final int PERIOD_STRENGTH = 3;
+    public static final int DEVIATION = 4;
+    public static final int NUM_FEATURES = 5;
+
+    public static final int BYTES = HEADER_BYTES + NUM_FEATURES * 4;
+
+    static final GestureAnalyser.Mode[] MODES = GestureAnalyser.Mode.values();
+
+    final byte[] data = new byte[BYTES];
+    final ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+
+    int deviceId;
+    int sequence;
+    long sendTime;
+    GestureAnalyser.Mode mode;
+    final float[] features = new float[NUM_FEATURES];
+
+    /**
+     * Packs the features of a snapshot under the next sequence number.
+     *
+     * @return the message, ready to send as the only argument to {@link #ADDRESS}. Reused by the next call.
+     */
+    public byte[] encode(int deviceId, long sendTime, FeatureSnapshot snapshot) {
+        this.deviceId = deviceId;
+        this.sendTime = sendTime;
+        sequence++;
+        mode = snapshot.mode;
+        features[SENSOR_MAGNITUDE] = snapshot.sensorMagnitude;
+        features[PERIOD] = snapshot.period;
+        features[INTEGRATED_PERIOD] = snapshot.integratedPeriod;
+        features[PERIOD_STRENGTH] = snapshot.periodStrength;
+        features[DEVIATION] = snapshot.deviation;
+        buffer.putShort(0, MAGIC);
+        buffer.put(2, VERSION);
+        buffer.put(3, (byte) NUM_FEATURES);
+        buffer.putInt(4, deviceId);
+        buffer.putInt(8, sequence);
+        buffer.putLong(12, sendTime);
+        buffer.putInt(20, mode == null ? -1 : mode.ordinal());
+        for (int i = 0; i < NUM_FEATURES; i++) {
+            buffer.putFloat(HEADER_BYTES + i * 4, features[i]);
+        }
+        return data;
+    }
+
+    /**
+     * Unpacks a received message into this instance. Features the sender did not include read as zero.
+     *
+     * @return false, leaving this instance unchanged, if the message is not a peer state this version can read.
+     */
+    public boolean decode(byte[] message) {
+        if (message == null || message.length < HEADER_BYTES) {
+            return false;
+        }
+        int numFeatures = message[3] & 0xff;
+        if ((short) ((message[0] & 0xff) | message[1] << 8) != MAGIC || message[2] != VERSION
+                || message.length < HEADER_BYTES + numFeatures * 4) {
+            return false;
+        }
+        deviceId = getInt(message, 4);
+        sequence = getInt(message, 8);
+        sendTime = (getInt(message, 12) & 0xffffffffL) | (long) getInt(message, 16) << 32;
+        int modeOrdinal = getInt(message, 20);
+        mode = modeOrdinal >= 0 && modeOrdinal < MODES.length ? MODES[modeOrdinal] : null;
+        for (int i = 0; i < NUM_FEATURES; i++) {
+            features[i] = i < numFeatures ? Float.intBitsToFloat(getInt(message, HEADER_BYTES + i * 4)) : 0;
+        }
+        return true;
+    }
+
+    //little endian, read straight from the array rather than wrapping it per message
+    static int getInt(byte[] message, int pos) {
+        return (message[pos] & 0xff) | (message[pos + 1] & 0xff) << 8 | (message[pos + 2] & 0xff) << 16
+                | message[pos + 3] << 24;
+    }
+
+    public int getDeviceId() {
+        return deviceId;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public long getSendTime() {
+        return sendTime;
+    }
+
+    /**
+     * @return the sender's mode, or null if the sender's mode is one this version does not know.
+     */
+    public GestureAnalyser.Mode getMode() {
+        return mode;
+    }
+
+    public float getFeature(int feature) {
+        return features[feature];
+    }
+
+    public float getPeriod() {
+        return features[PERIOD];
+    }
+
+    public float getDeviation() {
+        return features[DEVIATION];
+    }
+}
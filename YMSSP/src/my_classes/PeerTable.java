@@ -0,0 +1,275 @@
+package my_classes;
+
+/**
+ * The latest period and deviation heard from each other device in the ensemble, keyed by device index, with
+ * aggregates across the devices heard from recently.
+ * <p>
+ * A device that has not been heard from for the timeout is evicted by {@link #evictStale(long)}. Live devices
+ * are kept in a list in the order they were last heard from, so eviction only ever looks at the oldest. The mean
+ * and spread of period, mean deviation and number of regular players are running sums, updated as a device's
+ * values are replaced. The median period comes from a Fenwick tree of counts over period buckets of
+ * PERIOD_RESOLUTION ms. So an update or eviction is O(log buckets) whatever the number of devices, and nothing is
+ * allocated after construction. Not thread safe, use it from one thread.
+ * <p>
+ * Each device counts as irregular or regular with the same hysteresis as {@link ModeStateMachine}: irregular once
+ * its deviation reaches the enter threshold, and regular again only once it drops below the exit threshold, so a
+ * device hovering around the threshold does not flip the number of regular players.
+ */
+public class PeerTable {
+
+    public static final float PERIOD_RESOLUTION = 0.5f;   //ms, the median is to within half of this
+    public static final int PERIOD_BUCKETS = 1 << 14;      //periods up to about 8s, longer ones count as 8s
+
+    static final int NONE = -1;
+
+    final int maxDevices;
+    final long timeoutNanos;
+    final float enterThresh;        //deviation at or above this turns a device irregular
+    final float exitThresh;         //and below this turns it regular again
+
+    //per device, indexed by device index
+    final boolean[] live;
+    final long[] lastHeard;
+    final float[] periods, deviations;
+    final boolean[] irregular;
+    final int[] older, newer;       //links of the list of live devices, oldest first
+    int oldest = NONE, newest = NONE;
+
+    final int[] periodTree = new int[PERIOD_BUCKETS + 1];  //Fenwick tree of period bucket counts, 1 based
+    int numLive, numWithPeriod, numRegular;
+    double periodSum, periodSumSquares, deviationSum;
+
+    /**
+     * @param maxDevices      one more than the highest device index to keep, higher ones are ignored.
+     * @param timeoutNanos    how long a device can go unheard before it is evicted.
+     * @param deviationThresh deviation below which a device counts as regular, with no hysteresis.
+     */
+    public PeerTable(int maxDevices, long timeoutNanos, float deviationThresh) {
+        this(maxDevices, timeoutNanos, deviationThresh, deviationThresh);
+    }
+
+    /**
+     * @param enterThresh the deviation at which a regular device turns irregular, and a new one starts irregular.
+     * @param exitThresh  the deviation below which an irregular device turns regular, at most enterThresh.
+     */
+    public PeerTable(int maxDevices, long timeoutNanos, float enterThresh, float exitThresh) {
+        if (exitThresh > enterThresh) {
+            throw new IllegalArgumentException("exitThresh " + exitThresh + " is above enterThresh " + enterThresh);
+        }
+        this.maxDevices = maxDevices;
+        this.timeoutNanos = timeoutNanos;
+        this.enterThresh = enterThresh;
+        this.exitThresh = exitThresh;
+        live = new boolean[maxDevices];
+        lastHeard = new long[maxDevices];
+        periods = new float[maxDevices];
+        deviations = new float[maxDevices];
+        irregular = new boolean[maxDevices];
+        older = new int[maxDevices];
+        newer = new int[maxDevices];
+    }
+
+    /**
+     * Replaces a device's values with the latest heard from it. A period of zero or less means the device has
+     * no period yet, and leaves it out of the period aggregates.
+     *
+     * @return false if the device index is out of range.
+     */
+    public boolean update(int device, float period, float deviation, long timeNanos) {
+        if (device < 0 || device >= maxDevices) {
+            return false;
+        }
+        boolean wasIrregular = false;
+        if (live[device]) {
+            subtract(device);
+            unlink(device);
+            wasIrregular = irregular[device];
+        } else {
+            live[device] = true;
+            numLive++;
+        }
+        periods[device] = period;
+        deviations[device] = deviation;
+        irregular[device] = wasIrregular ? deviation >= exitThresh : deviation >= enterThresh;
+        lastHeard[device] = timeNanos;
+        add(device);
+        //append as the newest
+        older[device] = newest;
+        newer[device] = NONE;
+        if (newest != NONE) {
+            newer[newest] = device;
+        } else {
+            oldest = device;
+        }
+        newest = device;
+        return true;
+    }
+
+    /**
+     * Evicts every device not heard from in the timeout before timeNanos.
+     *
+     * @return the number of devices evicted.
+     */
+    public int evictStale(long timeNanos) {
+        int evicted = 0;
+        while (oldest != NONE && timeNanos - lastHeard[oldest] > timeoutNanos) {
+            remove(oldest);
+            evicted++;
+        }
+        return evicted;
+    }
+
+    public void remove(int device) {
+        if (device < 0 || device >= maxDevices || !live[device]) {
+            return;
+        }
+        subtract(device);
+        unlink(device);
+        live[device] = false;
+        numLive--;
+    }
+
+    private void add(int device) {
+        float period = periods[device];
+        if (period > 0) {
+            numWithPeriod++;
+            periodSum += period;
+            periodSumSquares += (double) period * period;
+            addToTree(bucket(period), 1);
+        }
+        deviationSum += deviations[device];
+        if (!irregular[device]) {
+            numRegular++;
+        }
+    }
+
+    private void subtract(int device) {
+        float period = periods[device];
+        if (period > 0) {
+            numWithPeriod--;
+            periodSum -= period;
+            periodSumSquares -= (double) period * period;
+            addToTree(bucket(period), -1);
+        }
+        deviationSum -= deviations[device];
+        if (!irregular[device]) {
+            numRegular--;
+        }
+        if (numLive == 1) {
+            //last one out, clear the rounding error rather than let it build up
+            periodSum = periodSumSquares = deviationSum = 0;
+        }
+    }
+
+    private void unlink(int device) {
+        int o = older[device];
+        int n = newer[device];
+        if (o != NONE) newer[o] = n; else oldest = n;
+        if (n != NONE) older[n] = o; else newest = o;
+    }
+
+    static int bucket(float period) {
+        return Math.min(PERIOD_BUCKETS - 1, (int) (period / PERIOD_RESOLUTION));
+    }
+
+    private void addToTree(int bucket, int delta) {
+        for (int i = bucket + 1; i <= PERIOD_BUCKETS; i += i & -i) {
+            periodTree[i] += delta;
+        }
+    }
+
+    /**
+     * @return the bucket holding the kth smallest period, k from 1.
+     */
+    private int findBucket(int k) {
+        int pos = 0;
+        for (int step = PERIOD_BUCKETS; step > 0; step >>= 1) {
+            int next = pos + step;
+            if (next <= PERIOD_BUCKETS && periodTree[next] < k) {
+                pos = next;
+                k -= periodTree[next];
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * @return the number of devices heard from within the timeout, as of the last eviction.
+     */
+    public int size() {
+        return numLive;
+    }
+
+    /**
+     * @return the number of live devices with a period.
+     */
+    public int getNumWithPeriod() {
+        return numWithPeriod;
+    }
+
+    /**
+     * @return the mean period of the live devices with a period, or -1 if there are none.
+     */
+    public float getMeanPeriod() {
+        return numWithPeriod == 0 ? -1 : (float) (periodSum / numWithPeriod);
+    }
+
+    /**
+     * @return the median period of the live devices with a period, the lower of the middle two for an even
+     * number, to within PERIOD_RESOLUTION / 2. -1 if there are none.
+     */
+    public float getMedianPeriod() {
+        if (numWithPeriod == 0) {
+            return -1;
+        }
+        return (findBucket((numWithPeriod + 1) / 2) + 0.5f) * PERIOD_RESOLUTION;
+    }
+
+    /**
+     * @return the standard deviation of the periods of the live devices with a period, 0 if there are none.
+     */
+    public float getPeriodSpread() {
+        if (numWithPeriod == 0) {
+            return 0;
+        }
+        double mean = periodSum / numWithPeriod;
+        return (float) Math.sqrt(Math.max(0, periodSumSquares / numWithPeriod - mean * mean));
+    }
+
+    /**
+     * @return the mean deviation of the live devices, 0 if there are none.
+     */
+    public float getMeanDeviation() {
+        return numLive == 0 ? 0 : (float) (deviationSum / numLive);
+    }
+
+    /**
+     * @return the fraction of live devices that count as regular, 0 if there are none.
+     */
+    public float getRegularFraction() {
+        return numLive == 0 ? 0 : numRegular / (float) numLive;
+    }
+
+    public boolean isLive(int device) {
+        return device >= 0 && device < maxDevices && live[device];
+    }
+
+    public float getPeriod(int device) {
+        return periods[device];
+    }
+
+    public float getDeviation(int device) {
+        return deviations[device];
+    }
+
+    /**
+     * @return whether the device counts as irregular, after hysteresis.
+     */
+    public boolean isIrregular(int device) {
+        return irregular[device];
+    }
+
+    public long getLastHeard(int device) {
+        return lastHeard[device];
+    }
+}
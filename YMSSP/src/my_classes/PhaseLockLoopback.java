@@ -0,0 +1,146 @@
+package my_classes;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Runs several {@link BeatPhaseLock}s against each other in simulated time, without devices or a network, to
+ * check that they pull their beats into phase and to see how long that takes.
+ * <p>
+ * Each simulated device has a clock whose interval starts at a shared period plus a small random difference, as
+ * the devices' integrated periods would, and a random phase. A beat is only noticed at the end of the audio
+ * block it falls in, and is stamped in a synchronised time that is slightly off per device, as HB's would be.
+ * Beat messages reach every other device after a latency plus random jitter, or are lost. Prints CSV of the
+ * true spread of the beats and the number of devices locked once per simulated second, then each device's
+ * convergence time. Exits with status 1 if the devices do not all end up locked.
+ * <p>
+ * Usage: PhaseLockLoopback [devices] [seconds] [latencyMS] [jitterMS] [lossFraction]
+ */
+public class PhaseLockLoopback {
+
+    static final float PERIOD = 500;                //ms
+    static final float TEMPO_SPREAD = 2;            //ms either way
+    static final double BLOCK_MS = 512 / 44.1;      //beats are heard once per audio block
+    static final double SYNCH_ERROR_MS = 1;         //either way, how far each device's synch time is out
+    static final long SEED = 1;
+
+    static class Device {
+        final int index;
+        final BeatPhaseLock lock;
+        final float period;
+        final double blockOffset, synchOffset;
+        double nextBeat;                            //true time of the next beat
+        double lastBeat = Double.NaN;
+        float interval;
+
+        Device(int index, Random rng) {
+            this.index = index;
+            lock = new BeatPhaseLock(index);
+            period = PERIOD + (rng.nextFloat() * 2 - 1) * TEMPO_SPREAD;
+            interval = period;
+            blockOffset = rng.nextDouble() * BLOCK_MS;
+            synchOffset = (rng.nextDouble() * 2 - 1) * SYNCH_ERROR_MS;
+            nextBeat = rng.nextDouble() * period;
+        }
+    }
+
+    static class Event implements Comparable<Event> {
+        final double time;
+        final Device device;
+        final byte[] message;                       //null for a beat
+
+        Event(double time, Device device, byte[] message) {
+            this.time = time;
+            this.device = device;
+            this.message = message;
+        }
+
+        @Override
+        public int compareTo(Event o) {
+            return Double.compare(time, o.time);
+        }
+    }
+
+    public static void main(String[] args) {
+        int numDevices = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+        double latency = args.length > 2 ? Double.parseDouble(args[2]) : 20;
+        double jitter = args.length > 3 ? Double.parseDouble(args[3]) : 10;
+        double loss = args.length > 4 ? Double.parseDouble(args[4]) : 0.05;
+        Random rng = new Random(SEED);
+        Device[] devices = new Device[numDevices];
+        PriorityQueue<Event> events = new PriorityQueue<>();
+        for (int i = 0; i < numDevices; i++) {
+            devices[i] = new Device(i, rng);
+            events.add(beatEvent(devices[i]));
+        }
+        System.out.println("seconds,beatSpreadMS,numLocked");
+        double end = seconds * 1000.0;
+        double nextReport = 1000;
+        while (!events.isEmpty() && events.peek().time < end) {
+            Event e = events.poll();
+            Device d = e.device;
+            if (e.message != null) {
+                d.lock.peerBeatReceived(e.message);
+                continue;
+            }
+            //a beat, heard at the end of its audio block
+            long stamp = (long) Math.floor(e.time + d.synchOffset);
+            d.interval = d.lock.beat(stamp, d.period, true);
+            d.lastBeat = d.nextBeat;
+            d.nextBeat += d.interval;
+            events.add(beatEvent(d));
+            byte[] beat = d.lock.encodeBeat(stamp, true);
+            for (Device other : devices) {
+                if (other != d && rng.nextDouble() >= loss) {
+                    events.add(new Event(e.time + latency + rng.nextDouble() * jitter, other, beat.clone()));
+                }
+            }
+            while (e.time >= nextReport) {
+                int numLocked = 0;
+                for (Device device : devices) {
+                    if (device.lock.isLocked()) numLocked++;
+                }
+                System.out.println((int) (nextReport / 1000) + "," + String.format("%.1f", spread(devices)) + ","
+                        + numLocked);
+                nextReport += 1000;
+            }
+        }
+        boolean allLocked = true;
+        for (Device d : devices) {
+            System.out.println("device " + d.index + ": period=" + d.period + " locked=" + d.lock.isLocked()
+                    + " convergenceMS=" + d.lock.getConvergenceTime()
+                    + " phaseErrorMS=" + String.format("%.2f", d.lock.getPhaseError())
+                    + " correctionMS=" + String.format("%.2f", d.lock.getCorrection()));
+            allLocked &= d.lock.isLocked();
+        }
+        if (!allLocked) {
+            System.exit(1);
+        }
+    }
+
+    static Event beatEvent(Device d) {
+        double heard = Math.ceil((d.nextBeat - d.blockOffset) / BLOCK_MS) * BLOCK_MS + d.blockOffset;
+        return new Event(heard, d, null);
+    }
+
+    /**
+     * @return the widest gap, in ms, between any device's last true beat and the first device's, wrapped into a
+     * beat.
+     */
+    static double spread(Device[] devices) {
+        double min = 0, max = 0;
+        Device first = devices[0];
+        for (Device d : devices) {
+            if (Double.isNaN(d.lastBeat) || Double.isNaN(first.lastBeat)) {
+                return Double.NaN;
+            }
+            double offset = (d.lastBeat - first.lastBeat) % PERIOD;
+            if (offset >= PERIOD / 2) offset -= PERIOD;
+            else if (offset < -PERIOD / 2) offset += PERIOD;
+            min = Math.min(min, offset);
+            max = Math.max(max, offset);
+        }
+        return max - min;
+    }
+}
@@ -0,0 +1,81 @@
+package my_classes;
+
+import net.beadsproject.beads.core.AudioContext;
+import net.beadsproject.beads.core.Bead;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands {@link ParameterPreset}s from whichever thread decides on them to the audio thread, which applies each
+ * one whole between two frames, so the audio never renders with a preset half applied and the deciding thread
+ * never touches the graph.
+ * <p>
+ * Register it with {@link AudioContext#invokeBeforeEveryFrame(Bead)}. {@link #request} only swaps a reference,
+ * and if several presets are requested within one frame only the last is applied, the others are counted as
+ * replaced. Any thread may request, though the counts are only exact with one requesting at a time, and the
+ * presets must not change once requested.
+ */
+public class PresetSwitcher extends Bead {
+
+    final AtomicReference<ParameterPreset> pending = new AtomicReference<>();
+    volatile ParameterPreset current;
+    volatile long numRequested, numApplied, numReplaced;
+
+    /**
+     * Asks for a preset to be applied before the next frame.
+     */
+    public void request(ParameterPreset preset) {
+        if (pending.getAndSet(preset) != null) {
+            numReplaced++;
+        }
+        numRequested++;
+    }
+
+    @Override
+    protected void messageReceived(Bead message) {
+        //on the audio thread, between frames
+        if (pending.get() == null) {
+            return;
+        }
+        ParameterPreset preset = pending.getAndSet(null);
+        if (preset != null) {
+            try {
+                preset.apply();
+            } catch (RuntimeException e) {
+                //keep the audio thread alive
+                e.printStackTrace();
+            }
+            current = preset;
+            numApplied++;
+        }
+    }
+
+    /**
+     * @return the preset applied most recently, or null if none yet.
+     */
+    public ParameterPreset getCurrent() {
+        return current;
+    }
+
+    /**
+     * @return true if a requested preset has not been applied yet.
+     */
+    public boolean isPending() {
+        return pending.get() != null;
+    }
+
+    public long getNumRequested() {
+        return numRequested;
+    }
+
+    public long getNumApplied() {
+        return numApplied;
+    }
+
+    /**
+     * @return the number of requests replaced by a later one before they were applied.
+     */
+    public long getNumReplaced() {
+        return numReplaced;
+    }
+}
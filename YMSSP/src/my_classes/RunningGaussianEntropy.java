@@ -0,0 +1,86 @@
+package my_classes;
+
+/**
+ * Gaussian differential entropy of a sliding window of samples, kept up to date in O(1) per sample.
+ * <p>
+ * Under a Gaussian model the entropy depends only on the variance, 0.5 * ln(2 PI e variance), so a running mean
+ * and sum of squared deviations is all that is needed. These are kept with Welford's update, extended to replace
+ * the sample leaving the window with the one entering it. The variance is the N - 1 estimate and the log is
+ * natural, as in infodynamics' EntropyCalculatorGaussian, so the two agree on the same window. Rounding error
+ * builds up slowly as samples come and go, so the sums are recomputed from the window once per window length.
+ */
+public class RunningGaussianEntropy {
+
+    final double[] window;
+    int writePos;
+    int count;
+    double mean;
+    double m2;                      //sum of squared deviations from the mean
+    int sinceRecompute;
+
+    /**
+     * @param windowLen the number of most recent samples the entropy is taken over.
+     */
+    public RunningGaussianEntropy(int windowLen) {
+        window = new double[windowLen];
+    }
+
+    public void addSample(double value) {
+        if (count == window.length) {
+            //replace the oldest sample, keeping the count fixed
+            double oldest = window[writePos];
+            double oldMean = mean;
+            mean += (value - oldest) / count;
+            m2 += (value - oldest) * (value - mean + oldest - oldMean);
+            if (m2 < 0) {
+                m2 = 0;
+            }
+        } else {
+            count++;
+            double delta = value - mean;
+            mean += delta / count;
+            m2 += delta * (value - mean);
+        }
+        window[writePos] = value;
+        if (++writePos == window.length) writePos = 0;
+        if (++sinceRecompute == window.length) {
+            sinceRecompute = 0;
+            recompute();
+        }
+    }
+
+    private void recompute() {
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += window[i];
+        }
+        mean = sum / count;
+        m2 = 0;
+        for (int i = 0; i < count; i++) {
+            double d = window[i] - mean;
+            m2 += d * d;
+        }
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * @return the N - 1 variance of the window, zero with fewer than two samples.
+     */
+    public double getVariance() {
+        return count < 2 ? 0 : m2 / (count - 1);
+    }
+
+    /**
+     * @return the Gaussian differential entropy of the window in nats, negative infinity if it has no variance.
+     */
+    public double getEntropy() {
+        return 0.5 * Math.log(2 * Math.PI * Math.E * getVariance());
+    }
+
+    public int getCount() {
+        return count;
+    }
+}
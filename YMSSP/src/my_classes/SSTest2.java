@@ -16,6 +16,7 @@ public class SSTest2 {
     static final String audioPath = "/Users/ollie/Desktop/SSS_Vox";
     static final int NUM_VOICES = 400;
     static final int BUFFERSIZE = 1024;
+    static final int RENDER_MS = 5000;
     static final Random rng = new Random();
 
     static final int[] SCALE_NOTES = new int[]{0,4,7,12,16,5,11,2,3,9,1,6,8,14,10,13,15};
@@ -32,24 +33,22 @@ public class SSTest2 {
 
         SampleManager.group("Shhh", audioPath + "/Shhh");
 
-        JackManager.run(BUFFERSIZE);
-        AudioContext ac = new AudioContext(new AudioServerIO.Jack(), BUFFERSIZE);
-        ac.start();
+        //"offline" renders as fast as it can with no Jack, e.g. to measure on a headless box
+        boolean offline = args.length > 0 && args[0].equals("offline");
+        AudioContext ac;
+        if (offline) {
+            ac = OfflineRenderer.newContext(BUFFERSIZE);
+        } else {
+            JackManager.run(BUFFERSIZE);
+            ac = new AudioContext(new AudioServerIO.Jack(), BUFFERSIZE);
+            ac.start();
+        }
         UGen.setDefaultContext(ac);
         ac.out.setGain(5f / NUM_VOICES);
 
-        SamplePlayer[] voices = new SamplePlayer[NUM_VOICES];
-        for(int i = 0; i < NUM_VOICES; i++) {
-            voices[i] = new SamplePlayer(1);
-            voices[i].setKillOnEnd(false);
-            float rand = rng.nextFloat();
-            Gain lGain = new Gain(1, rand);
-            Gain rGain = new Gain(1, 1 - rand);
-            lGain.addInput(voices[i]);
-            rGain.addInput(voices[i]);
-            ac.out.addInput(0, lGain, 0);
-            ac.out.addInput(1, rGain, 0);
-        }
+        //only the sounding voices are in the graph
+        VoicePool voices = new VoicePool(ac, NUM_VOICES, VoicePool.StealPolicy.OLDEST);
+        ac.out.addInput(voices);
 
         Clock c = new Clock();
         c.getIntervalUGen().setValue(500);
@@ -60,13 +59,11 @@ public class SSTest2 {
                     for(int i = 0; i < NUM_VOICES; i++) {
                         if(rng.nextFloat() < 0.05f) {
                             if(rng.nextFloat() < 0.5f) {
-                                voices[i].setSample(SampleManager.fromGroup("Stab", SCALE_NOTES[rng.nextInt(2)]));
+                                voices.play(SampleManager.fromGroup("Stab", SCALE_NOTES[rng.nextInt(2)]), 0, 1, rng.nextFloat());
                             } else {
-//                                voices[i].setSample(SampleManager.fromGroup("Shhh", rng.nextInt(2)));
-                                voices[i].setSample(SampleManager.fromGroup("ShortAh", SCALE_NOTES[rng.nextInt(2)]));
+//                                voices.play(SampleManager.fromGroup("Shhh", rng.nextInt(2)), 0, 1, rng.nextFloat());
+                                voices.play(SampleManager.fromGroup("ShortAh", SCALE_NOTES[rng.nextInt(2)]), 0, 1, rng.nextFloat());
                             }
-//                            voices[i].setPosition(rng.nextFloat() * 10);
-                            voices[i].setPosition(0);
                         }
                     }
                 }
@@ -74,12 +71,20 @@ public class SSTest2 {
         });
         ac.out.addDependent(c);
 
+        if (offline) {
+            OfflineRenderer renderer = new OfflineRenderer(ac).recordTo(new File("file1.wav"));
+            renderer.render(RENDER_MS);
+            System.out.println(renderer.report());
+            System.out.println("voices: " + voices);
+            return;
+        }
         RecordToFile rtf = new RecordToFile(2, new File("file1.wav"));
         rtf.addInput(ac.out);
         ac.out.addDependent(rtf);
-        DelayTrigger dt = new DelayTrigger(5000, new Bead() {
+        DelayTrigger dt = new DelayTrigger(RENDER_MS, new Bead() {
             @Override
             protected void messageReceived(Bead message) {
+                System.out.println("voices: " + voices);
                 rtf.kill();
                 ac.stop();
                 System.exit(0);
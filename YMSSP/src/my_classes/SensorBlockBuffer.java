@@ -0,0 +1,66 @@
+package my_classes;
+
+/**
+ * Collects timestamped three axis sensor readings into blocks and delivers each full block at once, as one
+ * array per axis. Consumers can then work through many readings per call in simple loops over primitive
+ * arrays, and pay for dispatch once per block rather than once per reading.
+ * <p>
+ * Feed it readings directly, e.g. from a trace, or hook it to a sensor with a {@link BatchSensorListener}. It
+ * needs nothing from HappyBrackets, so tools like {@link TraceReplay} run on a bare JDK. The arrays passed to
+ * {@link #blockUpdated} are reused for the next block, so copy anything that needs to outlive the call.
+ */
+public abstract class SensorBlockBuffer {
+
+    final long[] timeNanos;
+    final float[] x, y, z;
+    int count;
+
+    /**
+     * @param blockSize the number of readings per block. At 50Hz, 5 readings is 100ms of extra latency.
+     */
+    public SensorBlockBuffer(int blockSize) {
+        timeNanos = new long[blockSize];
+        x = new float[blockSize];
+        y = new float[blockSize];
+        z = new float[blockSize];
+    }
+
+    /**
+     * Called with each full block, and with whatever has been collected when {@link #flush()} is called.
+     *
+     * @param count the number of readings in the arrays, starting at index 0.
+     */
+    public abstract void blockUpdated(long[] timeNanos, float[] x, float[] y, float[] z, int count);
+
+    /**
+     * Adds a reading timestamped now.
+     */
+    public void sensorUpdated(float x, float y, float z) {
+        sensorUpdated(System.nanoTime(), x, y, z);
+    }
+
+    public void sensorUpdated(long timeNanos, float x, float y, float z) {
+        this.timeNanos[count] = timeNanos;
+        this.x[count] = x;
+        this.y[count] = y;
+        this.z[count] = z;
+        if (++count == this.x.length) {
+            flush();
+        }
+    }
+
+    /**
+     * Delivers any readings collected so far as a short block.
+     */
+    public void flush() {
+        if (count > 0) {
+            int blockCount = count;
+            count = 0;
+            blockUpdated(timeNanos, x, y, z, blockCount);
+        }
+    }
+
+    public int getBlockSize() {
+        return x.length;
+    }
+}
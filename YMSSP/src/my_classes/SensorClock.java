@@ -0,0 +1,131 @@
+package my_classes;
+
+/**
+ * Timing statistics for a stream of sensor readings, from their {@link System#nanoTime()} timestamps. Gives the
+ * mean interval and its jitter over a sliding window of recent intervals, and counts over the whole run of
+ * late readings and the longest gap, which show when the sensor thread is being starved.
+ */
+public class SensorClock {
+
+    static final double LATE_FACTOR = 2;        //an interval this many times the mean counts as late
+
+    final long[] intervals;                     //ring buffer of recent intervals in ns
+    int writePos;
+    int count;
+    double sum, sumSq;
+    int sinceRecompute;
+
+    boolean started;
+    long lastNanos;
+    long numReadings;
+    long numLate;
+    long maxIntervalNanos;
+
+    /**
+     * @param windowLen the number of recent intervals the mean and jitter are taken over.
+     */
+    public SensorClock(int windowLen) {
+        intervals = new long[windowLen];
+    }
+
+    /**
+     * Records the timestamp of a new reading.
+     */
+    public void tick(long timeNanos) {
+        numReadings++;
+        if (!started) {
+            started = true;
+            lastNanos = timeNanos;
+            return;
+        }
+        long interval = timeNanos - lastNanos;
+        lastNanos = timeNanos;
+        if (count > 0 && interval > LATE_FACTOR * sum / count) {
+            numLate++;
+        }
+        if (interval > maxIntervalNanos) {
+            maxIntervalNanos = interval;
+        }
+        if (count == intervals.length) {
+            long old = intervals[writePos];
+            sum -= old;
+            sumSq -= (double) old * old;
+        } else {
+            count++;
+        }
+        intervals[writePos] = interval;
+        sum += interval;
+        sumSq += (double) interval * interval;
+        if (++writePos == intervals.length) writePos = 0;
+        //the squares can be large enough to lose bits, so start the sums afresh once per window
+        if (++sinceRecompute == intervals.length) {
+            sinceRecompute = 0;
+            sum = 0;
+            sumSq = 0;
+            for (int i = 0; i < count; i++) {
+                sum += intervals[i];
+                sumSq += (double) intervals[i] * intervals[i];
+            }
+        }
+    }
+
+    /**
+     * @return the mean interval between readings over the window in ms, zero before the second reading.
+     */
+    public float getMeanIntervalMS() {
+        return count == 0 ? 0 : (float) (sum / count / 1e6);
+    }
+
+    /**
+     * @return the standard deviation of the interval over the window in ms.
+     */
+    public float getJitterMS() {
+        if (count < 2) {
+            return 0;
+        }
+        double mean = sum / count;
+        double variance = (sumSq - count * mean * mean) / (count - 1);
+        return variance > 0 ? (float) (Math.sqrt(variance) / 1e6) : 0;
+    }
+
+    /**
+     * @return the longest interval seen since the last {@link #resetStats()}, in ms.
+     */
+    public float getMaxIntervalMS() {
+        return maxIntervalNanos / 1e6f;
+    }
+
+    /**
+     * @return the number of readings since the last {@link #resetStats()}.
+     */
+    public long getNumReadings() {
+        return numReadings;
+    }
+
+    /**
+     * @return the number of readings since the last {@link #resetStats()} that arrived more than LATE_FACTOR
+     * times the mean interval after the one before.
+     */
+    public long getNumLate() {
+        return numLate;
+    }
+
+    public long getLastNanos() {
+        return lastNanos;
+    }
+
+    /**
+     * Clears the run counters, leaving the window alone.
+     */
+    public void resetStats() {
+        numReadings = 0;
+        numLate = 0;
+        maxIntervalNanos = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("interval=%.2fms jitter=%.2fms max=%.1fms late=%d/%d",
+                getMeanIntervalMS(), getJitterMS(), getMaxIntervalMS(), numLate, numReadings);
+    }
+}
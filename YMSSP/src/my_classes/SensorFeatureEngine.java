@@ -0,0 +1,538 @@
+package my_classes;
+
+import infodynamics.measures.continuous.gaussian.EntropyCalculatorGaussian;
+import org.apache.commons.math3.transform.DftNormalization;
+import org.apache.commons.math3.transform.FastFourierTransformer;
+import org.apache.commons.math3.transform.TransformType;
+
+/**
+ * The sensor history ring buffer and the period, deviation and spectral features that the YMSSP compositions
+ * compute from it. All working storage is allocated in the constructor so the steady-state per-sample path
+ * creates no garbage on the sensor thread.
+ */
+public class SensorFeatureEngine {
+
+    public enum SpectralMode {
+        FFT,            //full FFT over the history on each update
+        SLIDING_DFT     //spectrum updated incrementally on each sample, cheap enough to read every sample
+    }
+
+    public static final float PMIN = 100;
+    public static final float PMAX = 5000;
+
+    final int historyLen;
+    final int periodHistoryLen;
+
+    final double[] history;            //ring buffer storing history of the sensor magnitude
+    final long[] timeHistory;          //nanoTime of each sample in history
+    int historyWritePos;
+    final SensorClock clock;           //interval and jitter over the history
+    boolean resampling;
+    final double[] resampled;          //history on a uniform time grid, oldest first
+    int sourceWritePos;                //ring position of the oldest sample in the array being analysed
+    final double[] cosineWindow;
+    final double[][] fftData;
+    final double[] powerSpectrum;
+    final int[] crossTimeCounts;       //histogram of zero cross intervals, indexed by interval in samples
+    final double[] entropyObservations;
+    final RunningGaussianEntropy entropy;  //Gaussian entropy of the history, updated as samples arrive
+    float[] magnitudes;                //scratch for block magnitudes, grown to the largest block seen
+
+    final float[] periodHistory;
+    int periodHistoryWritePos;
+
+    float period;
+    float periodStrength;
+    float spectralFlatness;
+
+    SpectralMode spectralMode = SpectralMode.FFT;
+    SlidingDFT slidingDFT;
+    AutocorrelationPeriodEstimator autocorrelation;
+
+    EntropyCalculatorGaussian calculator;
+
+    public SensorFeatureEngine(int historyLen, int periodHistoryLen) {
+        this.historyLen = historyLen;
+        this.periodHistoryLen = periodHistoryLen;
+        history = new double[historyLen];
+        timeHistory = new long[historyLen];
+        clock = new SensorClock(historyLen);
+        resampled = new double[historyLen];
+        cosineWindow = new double[historyLen];
+        for (int i = 0; i < historyLen; i++) {
+            cosineWindow[i] = Math.cos(Math.PI * (double) i / historyLen);
+        }
+        fftData = new double[2][historyLen];
+        powerSpectrum = new double[historyLen / 2];
+        crossTimeCounts = new int[historyLen];
+        entropyObservations = new double[historyLen];
+        entropy = new RunningGaussianEntropy(historyLen);
+        for (int i = 0; i < historyLen; i++) {
+            //the history starts out full of zeros
+            entropy.addSample(0);
+        }
+        periodHistory = new float[periodHistoryLen];
+    }
+
+    /**
+     * Adds a three axis reading to the history as its magnitude, timestamped now.
+     *
+     * @return the magnitude that was stored.
+     */
+    public float addSample(float x, float y, float z) {
+        return addSample(x, y, z, System.nanoTime());
+    }
+
+    /**
+     * Adds a three axis reading to the history as its magnitude.
+     *
+     * @param timeNanos the time of the reading, from {@link System#nanoTime()} or a trace.
+     * @return the magnitude that was stored.
+     */
+    public float addSample(float x, float y, float z, long timeNanos) {
+        float magnitude = (float) Math.sqrt(x * x + y * y + z * z);
+        addSample(magnitude, timeNanos);
+        return magnitude;
+    }
+
+    /**
+     * Adds a value to the history, timestamped now.
+     */
+    public void addSample(float value) {
+        addSample(value, System.nanoTime());
+    }
+
+    public void addSample(float value, long timeNanos) {
+        clock.tick(timeNanos);
+        if (slidingDFT != null) {
+            slidingDFT.update(value, history[historyWritePos]);
+        }
+        if (autocorrelation != null) {
+            autocorrelation.addSample(value);
+        }
+        entropy.addSample(value);
+        history[historyWritePos] = value;
+        timeHistory[historyWritePos] = timeNanos;
+        if (++historyWritePos == historyLen) {
+            historyWritePos = 0;
+        }
+    }
+
+    /**
+     * Adds a block of three axis readings to the history as their magnitudes, given one array per axis.
+     */
+    public void addSamples(long[] timeNanos, float[] x, float[] y, float[] z, int count) {
+        if (magnitudes == null || magnitudes.length < count) {
+            magnitudes = new float[count];
+        }
+        for (int i = 0; i < count; i++) {
+            magnitudes[i] = (float) Math.sqrt(x[i] * x[i] + y[i] * y[i] + z[i] * z[i]);
+        }
+        addSamples(timeNanos, magnitudes, 0, count);
+    }
+
+    /**
+     * Adds a block of values to the history. Without the sliding spectrum or autocorrelation to update, the
+     * block is copied into the ring in at most two straight runs, with only the O(1) clock and entropy updates
+     * done per value.
+     */
+    public void addSamples(long[] timeNanos, float[] values, int offset, int count) {
+        if (slidingDFT != null || autocorrelation != null) {
+            for (int i = 0; i < count; i++) {
+                addSample(values[offset + i], timeNanos[offset + i]);
+            }
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            clock.tick(timeNanos[offset + i]);
+            entropy.addSample(values[offset + i]);
+        }
+        //only the last historyLen values survive
+        if (count > historyLen) {
+            offset += count - historyLen;
+            count = historyLen;
+        }
+        while (count > 0) {
+            int run = Math.min(count, historyLen - historyWritePos);
+            for (int i = 0; i < run; i++) {
+                history[historyWritePos + i] = values[offset + i];
+            }
+            System.arraycopy(timeNanos, offset, timeHistory, historyWritePos, run);
+            historyWritePos += run;
+            if (historyWritePos == historyLen) {
+                historyWritePos = 0;
+            }
+            offset += run;
+            count -= run;
+        }
+    }
+
+    /**
+     * Smooths a new period estimate into the current period and stores it, normalised, in the period history.
+     *
+     * @return true if the estimate was in range and was used.
+     */
+    public boolean updatePeriod(float tempPeriod, float smoothing) {
+        if (tempPeriod > 0 && tempPeriod < 10000) {
+            period += (tempPeriod - period) * smoothing;
+            //convert period history to -1:1 range before storing
+            float normalisedPeriod = (2 * (period - PMIN) / (PMAX - PMIN)) - 1;
+            normalisedPeriod = (float) Math.tanh(normalisedPeriod);
+            periodHistory[periodHistoryWritePos] = normalisedPeriod;
+            periodHistoryWritePos = (periodHistoryWritePos + 1) % periodHistoryLen;
+            return true;
+        }
+        return false;
+    }
+
+    public float calculatePeriodDeviation() {
+        float deviation = 0;
+        float average = 0;
+        for (int i = 0; i < periodHistoryLen; i++) {
+            average += periodHistory[i];
+        }
+        average /= periodHistoryLen;
+        for (int i = 0; i < periodHistoryLen; i++) {
+            deviation += (periodHistory[i] - average) * (periodHistory[i] - average);
+        }
+        return (float) Math.sqrt(deviation);
+    }
+
+    /**
+     * Estimates the period from the intervals between upward crossings of the history mean. Crossing intervals
+     * are counted into a histogram rather than collected and sorted, so the trimmed mean and the fallback
+     * quantile are read off in a single pass.
+     *
+     * @return the period in ms, zero if no estimate could be made.
+     */
+    public float findPeakPeriodXCross() {
+        double[] source = analysisSource();
+        //get average
+        float average = 0;
+        for (int i = 0; i < historyLen; i++) {
+            average += source[i];
+        }
+        average /= historyLen;
+        //determine all the zerocross times, walking backwards from the newest sample
+        int numCrosses = 0;
+        int minTime = historyLen;
+        int maxTime = 0;
+        int readPos = sourceWritePos == 0 ? historyLen - 1 : sourceWritePos - 1;
+        boolean up = (source[readPos] - average) > 0;
+        boolean firstUp = true;
+        int lastUptime = 0;
+        for (int i = 1; i < historyLen; i++) {
+            boolean newUp = (source[readPos] - average) > 0;
+            if (newUp && !up) {
+                //it's a zero cross
+                if (firstUp) {
+                    firstUp = false;
+                } else {
+                    int time = i - lastUptime;
+                    crossTimeCounts[time]++;
+                    numCrosses++;
+                    if (time < minTime) minTime = time;
+                    if (time > maxTime) maxTime = time;
+                }
+                lastUptime = i;
+            }
+            up = newUp;
+            readPos = readPos == 0 ? historyLen - 1 : readPos - 1;
+        }
+        //determine the average cross time, ignoring the outliers
+        float averageCrosstime = 0;
+        if (numCrosses > 6) {
+            //average approach, over sorted ranks 3 to numCrosses - 4
+            averageCrosstime = sumCrossTimesInRankRange(minTime, maxTime, 3, numCrosses - 3);
+            averageCrosstime /= (numCrosses - 6);
+        } else if (numCrosses > 0) {
+            //fall back to median approach
+            int rank = 3 * numCrosses / 4;
+            averageCrosstime = sumCrossTimesInRankRange(minTime, maxTime, rank, rank + 1);
+        }
+        periodStrength = 0;
+        return averageCrosstime * getSampleIntervalMS();
+    }
+
+    /**
+     * Sums the crossing times with sorted rank in [fromRank, toRank) and clears the histogram as it goes.
+     */
+    private float sumCrossTimesInRankRange(int minTime, int maxTime, int fromRank, int toRank) {
+        float sum = 0;
+        int rank = 0;
+        for (int time = minTime; time <= maxTime; time++) {
+            int count = crossTimeCounts[time];
+            if (count == 0) {
+                continue;
+            }
+            crossTimeCounts[time] = 0;
+            int overlap = Math.min(rank + count, toRank) - Math.max(rank, fromRank);
+            if (overlap > 0) {
+                sum += overlap * time;
+            }
+            rank += count;
+        }
+        return sum;
+    }
+
+    /**
+     * Estimates the period from the largest bin of an FFT over the history, ignoring padding bins at either end.
+     * The period strength is set to the height of that bin above the average.
+     *
+     * @return the period in ms.
+     */
+    public float findPeakPeriod(int padding) {
+        double[] source = analysisSource();
+        for (int i = 0; i < historyLen; i++) {
+            int readPos = sourceWritePos + i;
+            if (readPos >= historyLen) readPos -= historyLen;
+            fftData[0][i] = source[readPos] * cosineWindow[i];
+            fftData[1][i] = 0;
+        }
+        FastFourierTransformer.transformInPlace(fftData, DftNormalization.STANDARD, TransformType.FORWARD);
+        float peak = -Float.MAX_VALUE;
+        int bestIndex = -1;
+        float average = 0;
+        for (int i = 0; i < historyLen / 2; i++) {
+            float val = (float) fftData[0][i];
+            average += val;
+        }
+        average /= historyLen / 2f;
+        for (int i = padding; i < historyLen / 2 - padding; i++) {
+            float val = (float) fftData[0][i];
+            if (peak < val) {
+                peak = val;
+                bestIndex = i;
+            }
+        }
+        float freq = bestIndex * getSampleFreq() / (historyLen / 2f); // f_bin = i*f_s/N
+        periodStrength = peak - average;
+        return 1000 / freq;
+    }
+
+    /**
+     * Turns on the streaming autocorrelation used by {@link #findPeakPeriodAutocorrelation()}, seeded from the
+     * current history. Each sample then costs an extra O(maxLag).
+     *
+     * @param minLag the shortest period in samples.
+     * @param maxLag the longest period in samples, less than the history length.
+     */
+    public void setAutocorrelationLags(int minLag, int maxLag) {
+        autocorrelation = new AutocorrelationPeriodEstimator(historyLen, minLag, maxLag);
+        copyHistory(entropyObservations);
+        for (int i = 0; i < historyLen; i++) {
+            autocorrelation.addSample((float) entropyObservations[i]);
+        }
+    }
+
+    /**
+     * Estimates the period from the autocorrelation of the history, which is kept up to date on every sample
+     * so this costs O(maxLag) and can be called on every sample. The period strength is set to the normalised
+     * autocorrelation at the period, from 0 to 1. Needs {@link #setAutocorrelationLags(int, int)} first.
+     *
+     * @return the period in ms, zero if no estimate could be made.
+     */
+    public float findPeakPeriodAutocorrelation() {
+        autocorrelation.findPeriod();
+        periodStrength = autocorrelation.getConfidence();
+        return autocorrelation.getPeriodLag() * getSampleIntervalMS();
+    }
+
+    /**
+     * Selects how the power spectrum is computed. Switching to {@link SpectralMode#SLIDING_DFT} seeds the
+     * sliding transform from the current history.
+     */
+    public void setSpectralMode(SpectralMode spectralMode) {
+        this.spectralMode = spectralMode;
+        if (spectralMode == SpectralMode.SLIDING_DFT) {
+            if (slidingDFT == null) {
+                slidingDFT = new SlidingDFT(historyLen);
+            }
+            copyHistory(entropyObservations);
+            slidingDFT.reset(entropyObservations);
+        } else {
+            slidingDFT = null;
+        }
+    }
+
+    public SpectralMode getSpectralMode() {
+        return spectralMode;
+    }
+
+    /**
+     * Recomputes the power spectrum of the windowed history and its flatness. Read the results with
+     * {@link #getSpectralFlatness()} and {@link #getSpectralEntropy()}. In {@link SpectralMode#SLIDING_DFT}
+     * mode this costs O(historyLen / 2) and can be called on every sample.
+     */
+    public void updateSpectralData() {
+        int halfLen = historyLen / 2;
+        if (spectralMode == SpectralMode.SLIDING_DFT) {
+            slidingDFT.powerSpectrum(powerSpectrum);
+        } else {
+            double[] source = analysisSource();
+            int readPos = sourceWritePos == 0 ? historyLen - 1 : sourceWritePos - 1;
+            for (int i = 0; i < historyLen; i++) {
+                fftData[0][i] = source[readPos] * cosineWindow[i];
+                fftData[1][i] = 0;
+                readPos = readPos == 0 ? historyLen - 1 : readPos - 1;
+            }
+            FastFourierTransformer.transformInPlace(fftData, DftNormalization.STANDARD, TransformType.FORWARD);
+            //FFT transform complete, get power spectrum
+            for (int i = 0; i < halfLen; i++) {
+                powerSpectrum[i] = fftData[0][i] * fftData[0][i] + fftData[1][i] * fftData[1][i];
+            }
+        }
+        double geomMean = 1;
+        double arithMean = 0;
+        //get spectral flatness over power spectrum
+        for (int i = 0; i < halfLen; i++) {
+            arithMean += powerSpectrum[i];
+            geomMean *= powerSpectrum[i];
+        }
+        arithMean /= halfLen;
+        geomMean = Math.pow(geomMean, 1. / halfLen);
+        spectralFlatness = (float) (geomMean / arithMean);
+    }
+
+    /**
+     * @return the Gaussian differential entropy of the history, in nats. Kept up to date as samples arrive, so
+     * this costs O(1) and can be called on every sample.
+     */
+    public float differentialEntropy() {
+        return (float) entropy.getEntropy();
+    }
+
+    /**
+     * @return the Gaussian differential entropy of the history in nats, computed from scratch by infodynamics.
+     * The reference for {@link #differentialEntropy()}, costs O(historyLen) and allocates.
+     */
+    public float differentialEntropyBatch() {
+        if (calculator == null) {
+            calculator = new EntropyCalculatorGaussian();
+            calculator.initialise();
+        }
+        copyHistory(entropyObservations);
+        double entropy = 0;
+        try {
+            calculator.setObservations(entropyObservations);
+            entropy = calculator.computeAverageLocalOfObservations();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return (float) entropy;
+    }
+
+    /**
+     * Selects whether the FFT and zero crossing estimators read the history resampled onto a uniform time grid,
+     * so that irregular sample timing does not skew them. The sliding spectrum and autocorrelation are updated
+     * as samples arrive and always see the raw history.
+     */
+    public void setResampling(boolean resampling) {
+        this.resampling = resampling;
+    }
+
+    public boolean isResampling() {
+        return resampling;
+    }
+
+    /**
+     * Writes the history into dest, oldest first, linearly interpolated onto a uniform grid that ends at the
+     * newest sample and is spaced by the mean sample interval. Grid points older than the oldest sample take
+     * its value.
+     */
+    public void resampleHistory(double[] dest) {
+        double step = clock.getMeanIntervalMS() * 1e6;
+        if (step <= 0) {
+            copyHistory(dest);
+            return;
+        }
+        int newestPos = historyWritePos == 0 ? historyLen - 1 : historyWritePos - 1;
+        long newestNanos = timeHistory[newestPos];
+        //walk a pair of neighbouring samples, oldest first, along the grid
+        int j = 0;
+        int pos = historyWritePos;
+        int nextPos = pos + 1 == historyLen ? 0 : pos + 1;
+        for (int k = 0; k < historyLen; k++) {
+            double t = newestNanos - (historyLen - 1 - k) * step;
+            while (j < historyLen - 1 && timeHistory[nextPos] <= t) {
+                j++;
+                pos = nextPos;
+                nextPos = pos + 1 == historyLen ? 0 : pos + 1;
+            }
+            if (j == historyLen - 1 || timeHistory[pos] >= t) {
+                dest[k] = history[pos];
+            } else {
+                double frac = (t - timeHistory[pos]) / (timeHistory[nextPos] - timeHistory[pos]);
+                dest[k] = history[pos] + frac * (history[nextPos] - history[pos]);
+            }
+        }
+    }
+
+    /**
+     * @return the history to analyse, resampled if resampling is on, to be read as a ring from sourceWritePos.
+     */
+    private double[] analysisSource() {
+        if (resampling) {
+            resampleHistory(resampled);
+            sourceWritePos = 0;
+            return resampled;
+        }
+        sourceWritePos = historyWritePos;
+        return history;
+    }
+
+    /**
+     * Copies the history into dest, oldest sample first.
+     */
+    public void copyHistory(double[] dest) {
+        int firstPart = historyLen - historyWritePos;
+        System.arraycopy(history, historyWritePos, dest, 0, firstPart);
+        System.arraycopy(history, 0, dest, firstPart, historyWritePos);
+    }
+
+    public int getHistoryLen() {
+        return historyLen;
+    }
+
+    public float getPeriod() {
+        return period;
+    }
+
+    public float getPeriodStrength() {
+        return periodStrength;
+    }
+
+    /**
+     * @return the entropy of the power spectrum from the last call to {@link #updateSpectralData()}.
+     */
+    public float getSpectralEntropy() {
+        //calc entropy over power spectrum
+        float entropy = 0;
+        for (int i = 0; i < powerSpectrum.length; i++) {
+            entropy += powerSpectrum[i] * Math.log(powerSpectrum[i]);
+        }
+        return entropy;
+    }
+
+    public float getSpectralFlatness() {
+        return spectralFlatness;
+    }
+
+    /**
+     * @return the mean interval between samples over the history, in ms.
+     */
+    public float getSampleIntervalMS() {
+        return clock.getMeanIntervalMS();
+    }
+
+    public float getSampleFreq() {
+        return 1000f / clock.getMeanIntervalMS();
+    }
+
+    /**
+     * @return the timing statistics of the samples, for instrumentation.
+     */
+    public SensorClock getClock() {
+        return clock;
+    }
+}
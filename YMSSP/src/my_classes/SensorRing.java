@@ -0,0 +1,111 @@
+package my_classes;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single producer, single consumer ring of timestamped readings, used to hand sensor data from the
+ * thread that receives it to an analysis thread without either ever waiting on the other.
+ * <p>
+ * Each record is a type, a nanoTime timestamp and three floats, stored in preallocated parallel arrays so
+ * nothing is allocated per reading. The producer publishes a slot with a lazySet of the tail after writing it,
+ * and the consumer frees slots the same way with the head, so each side only does an ordered store and the
+ * occasional volatile read of the other's counter. If the ring is full the new reading is dropped and counted,
+ * so the producer is never held up. Only one thread may call {@link #offer} and only one {@link #drain}.
+ */
+public class SensorRing {
+
+    public interface Consumer {
+        void readingReceived(int type, long timeNanos, float x, float y, float z);
+    }
+
+    final int capacity;
+    final int mask;
+    final int[] types;
+    final long[] times;
+    final float[] xs, ys, zs;
+
+    final AtomicLong head = new AtomicLong();     //next slot to read, written by the consumer
+    final AtomicLong tail = new AtomicLong();     //next slot to write, written by the producer
+    long producerHeadCache;                       //last head the producer saw
+    long consumerTailCache;                       //last tail the consumer saw
+    volatile long numDropped;                     //written by the producer only
+
+    /**
+     * @param capacity the number of readings the ring holds, rounded up to a power of two.
+     */
+    public SensorRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.capacity = size;
+        mask = size - 1;
+        types = new int[size];
+        times = new long[size];
+        xs = new float[size];
+        ys = new float[size];
+        zs = new float[size];
+    }
+
+    /**
+     * Adds a reading. Producer thread only.
+     *
+     * @return false if the ring was full and the reading was dropped.
+     */
+    public boolean offer(int type, long timeNanos, float x, float y, float z) {
+        long t = tail.get();
+        if (t - producerHeadCache >= capacity) {
+            producerHeadCache = head.get();
+            if (t - producerHeadCache >= capacity) {
+                numDropped++;
+                return false;
+            }
+        }
+        int i = (int) t & mask;
+        types[i] = type;
+        times[i] = timeNanos;
+        xs[i] = x;
+        ys[i] = y;
+        zs[i] = z;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Passes every waiting reading to the consumer, oldest first. Consumer thread only.
+     *
+     * @return the number of readings drained.
+     */
+    public int drain(Consumer consumer) {
+        long h = head.get();
+        if (h == consumerTailCache) {
+            consumerTailCache = tail.get();
+            if (h == consumerTailCache) {
+                return 0;
+            }
+        }
+        long end = consumerTailCache;
+        int count = 0;
+        while (h < end) {
+            int i = (int) h & mask;
+            consumer.readingReceived(types[i], times[i], xs[i], ys[i], zs[i]);
+            h++;
+            count++;
+            //free slots as we go so a slow consumer does not cause drops
+            head.lazySet(h);
+        }
+        return count;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of readings waiting, approximate while the other thread is active.
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public long getNumDropped() {
+        return numDropped;
+    }
+}
@@ -0,0 +1,78 @@
+package my_classes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays back a trace written by {@link SensorTraceRecorder}, either at the speed it was recorded or as fast as
+ * the listener can take it.
+ */
+public class SensorTracePlayer {
+
+    public interface Listener {
+        void recordPlayed(int type, long timeNanos, float x, float y, float z);
+    }
+
+    final MappedByteBuffer buffer;
+    final int numRecords;
+
+    public SensorTracePlayer(File path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != SensorTraceRecorder.MAGIC) {
+            throw new IOException("Not a sensor trace: " + path);
+        }
+        if (buffer.getInt(4) != SensorTraceRecorder.VERSION) {
+            throw new IOException("Unsupported sensor trace version " + buffer.getInt(4) + ": " + path);
+        }
+        //the header count can be behind the file length if the recorder was not closed
+        long available = (buffer.capacity() - SensorTraceRecorder.HEADER_BYTES) / SensorTraceRecorder.RECORD_BYTES;
+        numRecords = (int) Math.min(buffer.getLong(8), available);
+    }
+
+    public int getNumRecords() {
+        return numRecords;
+    }
+
+    public long getTimeNanos(int index) {
+        return buffer.getLong(SensorTraceRecorder.HEADER_BYTES + index * SensorTraceRecorder.RECORD_BYTES);
+    }
+
+    /**
+     * @return the time from the first record to the last.
+     */
+    public long getDurationNanos() {
+        return numRecords == 0 ? 0 : getTimeNanos(numRecords - 1) - getTimeNanos(0);
+    }
+
+    /**
+     * Plays every record to the listener in order, on the calling thread.
+     *
+     * @param realtime true to wait between records as long as they were apart when recorded, false to play as
+     *                 fast as possible.
+     */
+    public void play(Listener listener, boolean realtime) {
+        long startNanos = System.nanoTime();
+        long firstRecordNanos = numRecords == 0 ? 0 : getTimeNanos(0);
+        for (int i = 0; i < numRecords; i++) {
+            int pos = SensorTraceRecorder.HEADER_BYTES + i * SensorTraceRecorder.RECORD_BYTES;
+            long timeNanos = buffer.getLong(pos);
+            if (realtime) {
+                //parkNanos can wake early, so keep waiting until the record is due
+                long wait;
+                while ((wait = (timeNanos - firstRecordNanos) - (System.nanoTime() - startNanos)) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            listener.recordPlayed(buffer.getInt(pos + 8), timeNanos,
+                    buffer.getFloat(pos + 12), buffer.getFloat(pos + 16), buffer.getFloat(pos + 20));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package my_classes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records timestamped sensor readings, and the values received from the other device, into a memory-mapped
+ * binary trace that {@link SensorTracePlayer} can play back.
+ * <p>
+ * The file is a 16 byte header (magic, version, record count) followed by fixed size records of a long
+ * timestamp in nanoseconds, an int record type and three floats. For the single value peer types only x is used,
+ * and peer state is the deviation, period and the sender's device index. The whole
+ * file is mapped up front so recording is just a few writes to memory, and the record count in the header is
+ * kept current so a trace survives the program being killed mid-show. Once the file is full further records
+ * are counted as dropped rather than growing the file, as are any after close.
+ */
+public class SensorTraceRecorder {
+
+    public static final int MAGIC = 0x594d5354;     //"YMST"
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 16;
+    public static final int RECORD_BYTES = 24;
+
+    public static final int ACCEL = 0;
+    public static final int GYRO = 1;
+    public static final int PEER_DEVIATION = 2;
+    public static final int PEER_PERIOD = 3;
+    public static final int PEER_STATE = 4;          //x deviation, y period, z sender's device index
+
+    final RandomAccessFile file;
+    final MappedByteBuffer buffer;
+    final int maxRecords;
+    int numRecords;
+    int numDropped;
+    boolean closed;
+
+    /**
+     * @param path       the trace file, overwritten if it exists.
+     * @param maxRecords the number of records to make room for, e.g. two sensors at 50Hz for an hour is 360000.
+     */
+    public SensorTraceRecorder(File path, int maxRecords) throws IOException {
+        this.maxRecords = maxRecords;
+        file = new RandomAccessFile(path, "rw");
+        long size = HEADER_BYTES + (long) maxRecords * RECORD_BYTES;
+        file.setLength(size);
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putLong(8, 0);
+    }
+
+    /**
+     * Records a reading timestamped now.
+     */
+    public void record(int type, float x, float y, float z) {
+        record(type, System.nanoTime(), x, y, z);
+    }
+
+    public synchronized void record(int type, long timeNanos, float x, float y, float z) {
+        if (closed || numRecords == maxRecords) {
+            numDropped++;
+            return;
+        }
+        int pos = HEADER_BYTES + numRecords * RECORD_BYTES;
+        buffer.putLong(pos, timeNanos);
+        buffer.putInt(pos + 8, type);
+        buffer.putFloat(pos + 12, x);
+        buffer.putFloat(pos + 16, y);
+        buffer.putFloat(pos + 20, z);
+        numRecords++;
+        buffer.putLong(8, numRecords);
+    }
+
+    public synchronized int getNumRecords() {
+        return numRecords;
+    }
+
+    public synchronized int getNumDropped() {
+        return numDropped;
+    }
+
+    /**
+     * Flushes the trace to disk and trims the file to the records written.
+     */
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        buffer.force();
+        file.setLength(HEADER_BYTES + (long) numRecords * RECORD_BYTES);
+        file.close();
+    }
+}
@@ -0,0 +1,82 @@
+package my_classes;
+
+/**
+ * Sliding DFT that keeps the power spectrum of the last size samples up to date in O(size / 2) per sample.
+ * <p>
+ * The spectrum matches the one {@link SensorFeatureEngine} gets from a full FFT of the history, newest sample
+ * first, under the half cosine window cos(PI * i / size). That window is the sum of two complex exponentials
+ * half a bin either side of zero, so each windowed bin k is the average of the unwindowed transform at the
+ * half-integer frequencies k - 1/2 and k + 1/2. Those are what this class tracks. At a half-integer frequency
+ * a full window of samples turns the phase by PI, so the sample leaving the window is added rather than
+ * subtracted. A damping factor just below one stops rounding error from accumulating.
+ */
+public class SlidingDFT {
+
+    static final double DAMPING = 1 - 1e-9;
+
+    final int size;
+    final int halfLen;
+    final double[] twiddleRe;      //damping * e^(-j * 2PI * (h + 1/2) / size)
+    final double[] twiddleIm;
+    final double[] re;             //transform at frequency h + 1/2 bins
+    final double[] im;
+    final double dampingPowSize;
+
+    public SlidingDFT(int size) {
+        this.size = size;
+        halfLen = size / 2;
+        twiddleRe = new double[halfLen];
+        twiddleIm = new double[halfLen];
+        re = new double[halfLen];
+        im = new double[halfLen];
+        for (int h = 0; h < halfLen; h++) {
+            double angle = -2 * Math.PI * (h + 0.5) / size;
+            twiddleRe[h] = DAMPING * Math.cos(angle);
+            twiddleIm[h] = DAMPING * Math.sin(angle);
+        }
+        dampingPowSize = Math.pow(DAMPING, size);
+    }
+
+    /**
+     * Slides the window on by one sample.
+     *
+     * @param newest the sample entering the window.
+     * @param oldest the sample leaving the window, written size samples ago.
+     */
+    public void update(double newest, double oldest) {
+        double in = newest + dampingPowSize * oldest;
+        for (int h = 0; h < halfLen; h++) {
+            double r = re[h];
+            double i = im[h];
+            re[h] = in + twiddleRe[h] * r - twiddleIm[h] * i;
+            im[h] = twiddleRe[h] * i + twiddleIm[h] * r;
+        }
+    }
+
+    /**
+     * Recomputes the transform directly from a window of samples, oldest first. Used to seed or resynchronise
+     * the sliding state, costs O(size^2 / 2).
+     */
+    public void reset(double[] window) {
+        for (int h = 0; h < halfLen; h++) {
+            re[h] = 0;
+            im[h] = 0;
+        }
+        for (int n = 0; n < size; n++) {
+            update(window[n], 0);
+        }
+    }
+
+    /**
+     * Writes the power of the first size / 2 bins of the cosine windowed transform into dest.
+     */
+    public void powerSpectrum(double[] dest) {
+        //bin 0 averages the transform at -1/2, the conjugate of +1/2, with +1/2
+        dest[0] = re[0] * re[0];
+        for (int k = 1; k < halfLen; k++) {
+            double r = 0.5 * (re[k - 1] + re[k]);
+            double i = 0.5 * (im[k - 1] + im[k]);
+            dest[k] = r * r + i * i;
+        }
+    }
+}
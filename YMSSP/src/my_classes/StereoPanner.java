@@ -0,0 +1,29 @@
+package my_classes;
+
+/**
+ * The constant power pan law, for panning a mono voice to stereo with one gain per side, as {@link VoicePool}
+ * does, in place of feeding the voice to two Gains at pan and 1 - pan.
+ * <p>
+ * left = cos(pan * pi / 2) and right = sin(pan * pi / 2), so a sound keeps its loudness across the field, where
+ * the two Gains dip by 3dB in the middle.
+ */
+public class StereoPanner {
+
+    /**
+     * @return the left gain for a pan from 0 for left to 1 for right.
+     */
+    public static float leftGain(float pan) {
+        return (float) Math.cos(clamp(pan) * Math.PI / 2);
+    }
+
+    /**
+     * @return the right gain for a pan from 0 for left to 1 for right.
+     */
+    public static float rightGain(float pan) {
+        return (float) Math.sin(clamp(pan) * Math.PI / 2);
+    }
+
+    static float clamp(float pan) {
+        return pan < 0 ? 0 : pan > 1 ? 1 : pan;
+    }
+}
@@ -0,0 +1,187 @@
+package my_classes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Replays a sensor trace through {@link GestureAnalyser} without hardware. It reports throughput and per-reading
+ * latency of the feature and mode pipeline, and the mode changes it made. Those can be saved and checked
+ * against later runs, so that an optimisation which changes a mode decision shows up as a failure.
+ * <p>
+ * Usage:
+ * <pre>
+ * TraceReplay trace.bin [-realtime] [-block readings] [-write modes.txt] [-expect modes.txt]
+ * TraceReplay -synthesize trace.bin [seconds]
+ * </pre>
+ * With -block the gyro readings go through a {@link SensorBlockBuffer} and are analysed a block at a time,
+ * and latency is per block.
+ * Exits with status 1 if the mode changes differ from the expected ones.
+ */
+public class TraceReplay implements SensorTracePlayer.Listener {
+
+    static final int SENSOR_RATE = 50;                 //readings per second when synthesizing
+    static final int SEGMENT_SECONDS = 20;             //how long the synthetic player keeps to one kind of movement
+    static final int PEER_SEGMENT_SECONDS = 30;
+
+    final GestureAnalyser analyser;
+    final List<String> modeChanges = new ArrayList<>();
+    final long[] latencies;
+    final SensorBlockBuffer batch;
+    int numGyro;
+    int numLatencies;
+    int recordIndex;
+
+    TraceReplay(int numRecords, int blockSize) {
+        latencies = new long[numRecords];
+        batch = blockSize <= 1 ? null : new SensorBlockBuffer(blockSize) {
+            @Override
+            public void blockUpdated(long[] timeNanos, float[] x, float[] y, float[] z, int count) {
+                long start = System.nanoTime();
+                analyser.gyroBlockUpdated(timeNanos, x, y, z, count);
+                latencies[numLatencies++] = System.nanoTime() - start;
+            }
+        };
+        analyser = new GestureAnalyser(GestureAnalyser.Mode.UNITY) {
+            @Override
+            public void modeChanged(Mode newMode) {
+                modeChanges.add(recordIndex + "," + newMode);
+            }
+        };
+    }
+
+    @Override
+    public void recordPlayed(int type, long timeNanos, float x, float y, float z) {
+        switch (type) {
+            case SensorTraceRecorder.GYRO:
+                numGyro++;
+                if (batch != null) {
+                    batch.sensorUpdated(timeNanos, x, y, z);
+                } else {
+                    long start = System.nanoTime();
+                    analyser.gyroUpdated(x, y, z, timeNanos);
+                    latencies[numLatencies++] = System.nanoTime() - start;
+                }
+                break;
+            case SensorTraceRecorder.PEER_DEVIATION:
+                analyser.otherDeviationReceived(x);
+                break;
+            case SensorTraceRecorder.PEER_PERIOD:
+                analyser.otherPeriodReceived(x);
+                break;
+            case SensorTraceRecorder.PEER_STATE:
+                analyser.peerStateReceived((int) z, x, y, timeNanos);
+                break;
+        }
+        recordIndex++;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: TraceReplay trace.bin [-realtime] [-block readings] [-write modes.txt] [-expect modes.txt]");
+            System.out.println("       TraceReplay -synthesize trace.bin [seconds]");
+            return;
+        }
+        if (args[0].equals("-synthesize")) {
+            int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 120;
+            synthesize(new File(args[1]), seconds);
+            return;
+        }
+        boolean realtime = false;
+        int blockSize = 1;
+        File writeFile = null;
+        File expectFile = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-realtime")) {
+                realtime = true;
+            } else if (args[i].equals("-block")) {
+                blockSize = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-write")) {
+                writeFile = new File(args[++i]);
+            } else if (args[i].equals("-expect")) {
+                expectFile = new File(args[++i]);
+            }
+        }
+        SensorTracePlayer player = new SensorTracePlayer(new File(args[0]));
+        TraceReplay replay = new TraceReplay(player.getNumRecords(), blockSize);
+        long start = System.nanoTime();
+        player.play(replay, realtime);
+        if (replay.batch != null) {
+            replay.batch.flush();
+        }
+        long elapsed = System.nanoTime() - start;
+        //report
+        long[] latencies = Arrays.copyOf(replay.latencies, replay.numLatencies);
+        Arrays.sort(latencies);
+        System.out.println("records: " + player.getNumRecords() + ", gyro readings: " + replay.numGyro);
+        System.out.println("trace duration: " + player.getDurationNanos() / 1000000 + "ms, replay took: "
+                + elapsed / 1000000 + "ms, " + (long) (replay.numGyro / (elapsed / 1e9)) + " gyro readings/s");
+        if (latencies.length > 0) {
+            System.out.println((blockSize > 1 ? "gyro block latency ns: p50=" : "gyro latency ns: p50=") + latencies[latencies.length / 2]
+                    + " p99=" + latencies[(int) (latencies.length * 0.99)]
+                    + " max=" + latencies[latencies.length - 1]);
+        }
+        System.out.println("sensor clock: " + replay.analyser.getClock());
+        System.out.println("mode changes: " + replay.modeChanges.size() + ", final mode: " + replay.analyser.getMode());
+        if (writeFile != null) {
+            try (PrintWriter out = new PrintWriter(writeFile, "UTF-8")) {
+                for (String change : replay.modeChanges) {
+                    out.println(change);
+                }
+            }
+        }
+        if (expectFile != null) {
+            List<String> expected = Files.readAllLines(expectFile.toPath(), StandardCharsets.UTF_8);
+            int size = Math.min(expected.size(), replay.modeChanges.size());
+            for (int i = 0; i < size; i++) {
+                if (!expected.get(i).equals(replay.modeChanges.get(i))) {
+                    System.out.println("FAIL: mode change " + i + " was " + replay.modeChanges.get(i)
+                            + ", expected " + expected.get(i));
+                    System.exit(1);
+                }
+            }
+            if (expected.size() != replay.modeChanges.size()) {
+                System.out.println("FAIL: " + replay.modeChanges.size() + " mode changes, expected " + expected.size());
+                System.exit(1);
+            }
+            System.out.println("OK: mode changes match " + expectFile);
+        }
+    }
+
+    /**
+     * Writes a trace of a player alternating between regular and irregular movement, with the other device
+     * alternating on a different schedule so that all four modes come up.
+     */
+    static void synthesize(File file, int seconds) throws IOException {
+        int numReadings = seconds * SENSOR_RATE;
+        //accel and gyro every reading, the peer's deviation and period every STEPS_BETWEEN_UPDATE readings
+        int maxRecords = numReadings * 2 + 2 * (numReadings / GestureAnalyser.STEPS_BETWEEN_UPDATE + 1);
+        SensorTraceRecorder recorder = new SensorTraceRecorder(file, maxRecords);
+        GyroSignalGenerator regular = new GyroSignalGenerator(GyroSignalGenerator.Shape.REGULAR, 25, 1);
+        GyroSignalGenerator irregular = new GyroSignalGenerator(GyroSignalGenerator.Shape.IRREGULAR, 0, 2);
+        Random rng = new Random(3);
+        float[] xyz = new float[3];
+        long intervalNanos = 1000000000L / SENSOR_RATE;
+        for (int i = 0; i < numReadings; i++) {
+            long time = i * intervalNanos + (long) (rng.nextGaussian() * 1000000);
+            recorder.record(SensorTraceRecorder.ACCEL, time,
+                    0.05f * (float) rng.nextGaussian(), 0.05f * (float) rng.nextGaussian(), 1);
+            boolean isRegular = (i / (SEGMENT_SECONDS * SENSOR_RATE)) % 2 == 0;
+            (isRegular ? regular : irregular).next(xyz);
+            recorder.record(SensorTraceRecorder.GYRO, time, xyz[0], xyz[1], xyz[2]);
+            if (i % GestureAnalyser.STEPS_BETWEEN_UPDATE == 0) {
+                boolean peerRegular = (i / (PEER_SEGMENT_SECONDS * SENSOR_RATE)) % 2 == 0;
+                recorder.record(SensorTraceRecorder.PEER_DEVIATION, time, peerRegular ? 0.05f : 0.3f, 0, 0);
+                recorder.record(SensorTraceRecorder.PEER_PERIOD, time, 500, 0, 0);
+            }
+        }
+        recorder.close();
+        System.out.println("wrote " + recorder.getNumRecords() + " records to " + file);
+    }
+}
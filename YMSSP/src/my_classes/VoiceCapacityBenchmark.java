@@ -0,0 +1,219 @@
+package my_classes;
+
+import net.beadsproject.beads.core.AudioContext;
+import net.beadsproject.beads.core.Bead;
+import net.beadsproject.beads.core.UGen;
+import net.beadsproject.beads.data.Buffer;
+import net.beadsproject.beads.data.Sample;
+import net.beadsproject.beads.ugens.Gain;
+import net.beadsproject.beads.ugens.GranularSamplePlayer;
+import net.beadsproject.beads.ugens.SamplePlayer;
+import net.beadsproject.beads.ugens.WavePlayer;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Finds how many voices of each kind a device can render, the automated version of pressing "Add" in
+ * {@link HowManyOscillators} until it breaks up.
+ * <p>
+ * For each voice type and buffer size it renders in non-realtime, as {@link OfflineRenderer} does, timing every
+ * block, and keeps adding voices until the median block takes more than the given fraction of the block's real
+ * time deadline. Voices are added in steps of an eighth of those playing, and when a step goes over the step is
+ * taken back and retried a quarter the size, down to single voices, so the answer is exact without measuring
+ * every count. Each count is measured over WINDOW_FRAMES blocks after WARMUP_FRAMES to let the JIT settle.
+ * <p>
+ * Prints CSV, one row per voice type and buffer size, and optionally writes the same table as JSON, keyed by
+ * voice type, with the device model so tables from several devices can be kept side by side.
+ * <p>
+ * Usage: VoiceCapacityBenchmark [bufferSize,bufferSize,...] [deadlineFraction] [jsonFile]
+ */
+public class VoiceCapacityBenchmark {
+
+    static final int WARMUP_FRAMES = 20;
+    static final int WINDOW_FRAMES = 50;
+    static final int MAX_VOICES = 20000;
+    static final double SAMPLE_MS = 2000;
+    static final long SEED = 1;
+
+    enum VoiceType {
+        WAVE, SAMPLE, GRANULAR
+    }
+
+    /**
+     * Adds voices to a context's output until the render time per block goes over budget.
+     */
+    static class Probe extends Bead {
+        final AudioContext ac;
+        final VoiceType type;
+        final Sample sample;
+        final Gain mix;
+        final long budgetNanos;
+        final Random rng = new Random(SEED);
+        final List<UGen> voices = new ArrayList<>();
+        final long[] times = new long[WINDOW_FRAMES];
+        final Bead frameStart = new Bead() {
+            @Override
+            protected void messageReceived(Bead message) {
+                startTime = System.nanoTime();
+            }
+        };
+        long startTime;
+        int frame;
+        int step = 1;
+        int lastStep;
+        boolean overshot;           //once a step has gone over, steps only get smaller
+        int capacity;
+        long capacityNanos;         //median block time at capacity
+
+        Probe(AudioContext ac, VoiceType type, Sample sample, double deadlineFraction) {
+            this.ac = ac;
+            this.type = type;
+            this.sample = sample;
+            mix = new Gain(ac, 1, 0.1f);
+            ac.out.addInput(mix);
+            budgetNanos = (long) (deadlineFraction * ac.samplesToMs(ac.getBufferSize()) * 1e6);
+            ac.invokeBeforeEveryFrame(frameStart);
+            ac.invokeAfterEveryFrame(this);
+        }
+
+        @Override
+        protected void messageReceived(Bead message) {
+            //after each frame, on the audio thread
+            long elapsed = System.nanoTime() - startTime;
+            if (frame >= WARMUP_FRAMES) {
+                times[frame - WARMUP_FRAMES] = elapsed;
+            }
+            if (++frame < WARMUP_FRAMES + WINDOW_FRAMES) {
+                return;
+            }
+            frame = 0;
+            Arrays.sort(times);
+            long median = times[WINDOW_FRAMES / 2];
+            if (median <= budgetNanos) {
+                capacity = voices.size();
+                capacityNanos = median;
+                if (capacity >= MAX_VOICES) {
+                    ac.stop();
+                    return;
+                }
+                if (!overshot) {
+                    step = Math.max(step, capacity / 8);
+                }
+            } else {
+                //over budget, take the last step back and try smaller ones
+                for (int i = 0; i < lastStep; i++) {
+                    mix.removeAllConnections(voices.remove(voices.size() - 1));
+                }
+                if (lastStep <= 1) {
+                    ac.stop();
+                    return;
+                }
+                step = Math.max(1, lastStep / 4);
+                overshot = true;
+            }
+            lastStep = Math.min(step, MAX_VOICES - voices.size());
+            for (int i = 0; i < lastStep; i++) {
+                UGen v = newVoice();
+                voices.add(v);
+                mix.addInput(v);
+            }
+        }
+
+        UGen newVoice() {
+            switch (type) {
+                case WAVE:
+                    return new WavePlayer(ac, 200 + rng.nextFloat() * 800, Buffer.SINE);
+                case SAMPLE: {
+                    SamplePlayer sp = new SamplePlayer(ac, sample);
+                    sp.setLoopType(SamplePlayer.LoopType.LOOP_FORWARDS);
+                    sp.setPosition(rng.nextDouble() * SAMPLE_MS);
+                    return sp;
+                }
+                default: {
+                    GranularSamplePlayer gsp = new GranularSamplePlayer(ac, sample);
+                    gsp.setLoopType(SamplePlayer.LoopType.LOOP_ALTERNATING);
+                    gsp.setPosition(rng.nextDouble() * SAMPLE_MS);
+                    return gsp;
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String[] sizes = (args.length > 0 ? args[0] : "128,256,512,1024").split(",");
+        double fraction = args.length > 1 ? Double.parseDouble(args[1]) : 0.7;
+        File json = args.length > 2 ? new File(args[2]) : null;
+        String device = deviceModel();
+        System.out.println("device,voiceType,bufferSize,deadlineMS,fraction,maxVoices,blockMS,usPerVoice");
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("{\"device\": \"%s\", \"fraction\": %.2f, \"capacity\": {", device, fraction));
+        for (VoiceType type : VoiceType.values()) {
+            table.append(type == VoiceType.WAVE ? "" : ",").append("\n  \"").append(type).append("\": [");
+            for (int i = 0; i < sizes.length; i++) {
+                int bufferSize = Integer.parseInt(sizes[i].trim());
+                AudioContext ac = OfflineRenderer.newContext(bufferSize);
+                Probe probe = new Probe(ac, type, testSample(ac), fraction);
+                //renders until the probe stops it
+                ac.runNonRealTime();
+                double deadlineMS = ac.samplesToMs(bufferSize);
+                double blockMS = probe.capacityNanos / 1e6;
+                double usPerVoice = probe.capacity == 0 ? 0 : blockMS * 1000 / probe.capacity;
+                System.out.println(String.format("%s,%s,%d,%.3f,%.2f,%d,%.3f,%.3f", device, type, bufferSize,
+                        deadlineMS, fraction, probe.capacity, blockMS, usPerVoice));
+                table.append(i == 0 ? "" : ",").append(String.format(
+                        "\n    {\"bufferSize\": %d, \"deadlineMS\": %.3f, \"maxVoices\": %d, \"usPerVoice\": %.3f}",
+                        bufferSize, deadlineMS, probe.capacity, usPerVoice));
+            }
+            table.append("\n  ]");
+        }
+        table.append("\n}}\n");
+        if (json != null) {
+            try (FileWriter w = new FileWriter(json)) {
+                w.write(table.toString());
+            }
+        }
+    }
+
+    /**
+     * @return a mono test sample, a couple of seconds of a few sine partials with some noise.
+     */
+    static Sample testSample(AudioContext ac) {
+        float sr = ac.getSampleRate();
+        int numFrames = (int) (SAMPLE_MS * sr / 1000);
+        float[][] data = new float[1][numFrames];
+        Random rng = new Random(SEED);
+        for (int j = 0; j < numFrames; j++) {
+            double t = j / (double) sr;
+            data[0][j] = (float) (0.4 * Math.sin(2 * Math.PI * 220 * t) + 0.2 * Math.sin(2 * Math.PI * 331 * t)
+                    + 0.1 * Math.sin(2 * Math.PI * 587 * t) + 0.05 * (rng.nextFloat() * 2 - 1));
+        }
+        Sample sample = new Sample(SAMPLE_MS, 1, sr);
+        sample.putFrames(0, data);
+        return sample;
+    }
+
+    /**
+     * @return the board name on a Pi, otherwise the OS and architecture, with the core count.
+     */
+    static String deviceModel() {
+        String model = System.getProperty("os.name") + " " + System.getProperty("os.arch");
+        try {
+            File f = new File("/proc/device-tree/model");
+            if (f.exists()) {
+                //null terminated
+                model = new String(Files.readAllBytes(Paths.get(f.getPath()))).replace("\0", "").trim();
+            }
+        } catch (IOException e) {
+            //keep the generic name
+        }
+        return model.replace(',', ' ').replace('"', ' ') + " x" + Runtime.getRuntime().availableProcessors();
+    }
+}
@@ -0,0 +1,201 @@
+package my_classes;
+
+import net.beadsproject.beads.core.AudioContext;
+import net.beadsproject.beads.core.UGen;
+import net.beadsproject.beads.data.Sample;
+
+/**
+ * A stereo mix of sample voices where only the voices that are sounding cost anything to render, for pieces that
+ * need hundreds of voices but only have some of them playing at once.
+ * <p>
+ * The voices are not UGens. Each is a sample, a position and a gain per side, made up front, and the pool reads
+ * the playing ones straight from their samples each frame, at the original speed with linear interpolation, and
+ * mixes them with their gain and the constant power pan of {@link StereoPanner}. A voice goes back to the idle
+ * list as soon as its sample ends. When {@link #play} finds no idle voice it steals one, the oldest or the
+ * quietest in the last frame, depending on the policy. So a frame costs a read of each sounding voice's sample,
+ * rather than a player and two Gains per allocated voice as wiring them all into ac.out does.
+ * <p>
+ * Call {@link #play} on the audio thread, e.g. from a Clock or other Bead the context runs, like any change to
+ * the graph.
+ * <p>
+ * Rendering a block reads only the pool's own voices and their samples, which Beads holds whole in memory, and
+ * writes only into the voices and the output given, so pools can render on different threads at once as
+ * {@link ParallelMix.Source}s. No UGen is updated, and no buffer is taken from the context.
+ */
+public class VoicePool extends UGen implements ParallelMix.Source {
+
+    public enum StealPolicy {
+        OLDEST, QUIETEST
+    }
+
+    static class Voice {
+        Sample sample;
+        double position;        //ms
+        float[] frame = new float[2];       //one frame of the sample, every channel
+        float left, right;
+        long startTime;         //context time step it started at
+        float level;            //rms of its last frame, after gain and pan
+    }
+
+    final StealPolicy policy;
+    final double msPerSample;
+    final Voice[] active, idle;
+    int numActive, numIdle;
+    long numPlayed, numStolen;
+    int peakActive;
+
+    public VoicePool(AudioContext context, int numVoices, StealPolicy policy) {
+        super(context, 0, 2);
+        this.policy = policy;
+        msPerSample = context.samplesToMs(1);
+        active = new Voice[numVoices];
+        idle = new Voice[numVoices];
+        for (int i = 0; i < numVoices; i++) {
+            idle[numIdle++] = new Voice();
+        }
+    }
+
+    /**
+     * Starts a sample on an idle voice, or on a stolen one if there are none. The sample plays once through, to
+     * its end.
+     *
+     * @param position where in the sample to start, in ms.
+     * @param gain     the voice's level.
+     * @param pan      from 0 for left to 1 for right.
+     * @return false if the pool has no voices.
+     */
+    public boolean play(Sample sample, double position, float gain, float pan) {
+        Voice v;
+        if (numIdle > 0) {
+            v = idle[--numIdle];
+            active[numActive++] = v;
+        } else if (numActive > 0) {
+            v = active[stealIndex()];
+            numStolen++;
+        } else {
+            return false;
+        }
+        v.left = gain * StereoPanner.leftGain(pan);
+        v.right = gain * StereoPanner.rightGain(pan);
+        v.startTime = context.getTimeStep();
+        v.level = Math.max(v.left, v.right);     //until it has rendered, as loud as it can be
+        v.sample = sample;
+        v.position = position;
+        if (v.frame.length < sample.getNumChannels()) {
+            v.frame = new float[sample.getNumChannels()];
+        }
+        numPlayed++;
+        peakActive = Math.max(peakActive, numActive);
+        return true;
+    }
+
+    private int stealIndex() {
+        int best = 0;
+        for (int i = 1; i < numActive; i++) {
+            Voice v = active[i];
+            if (policy == StealPolicy.OLDEST ? v.startTime < active[best].startTime : v.level < active[best].level) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Silences every voice and returns it to the idle list.
+     */
+    public void stopAll() {
+        while (numActive > 0) {
+            release(numActive - 1);
+        }
+    }
+
+    private void release(int i) {
+        Voice v = active[i];
+        v.sample = null;
+        active[i] = active[--numActive];
+        active[numActive] = null;
+        idle[numIdle++] = v;
+    }
+
+    @Override
+    public void calculateBuffer() {
+        float[] outL = bufOut[0];
+        float[] outR = bufOut[1];
+        for (int j = 0; j < bufferSize; j++) {
+            outL[j] = 0;
+            outR[j] = 0;
+        }
+        addBlock(bufOut);
+    }
+
+    /**
+     * Renders the next block of every sounding voice and adds it to out, one array per side.
+     */
+    @Override
+    public void addBlock(float[][] out) {
+        float[] outL = out[0];
+        float[] outR = out[1];
+        for (int i = 0; i < numActive; i++) {
+            Voice v = active[i];
+            Sample sample = v.sample;
+            float[] frame = v.frame;
+            double length = sample.getLength();
+            double position = v.position;
+            float l = v.left, r = v.right;
+            float sumSquares = 0;
+            for (int j = 0; j < bufferSize && position < length; j++) {
+                sample.getFrameLinear(position, frame);
+                float s = frame[0];
+                outL[j] += s * l;
+                outR[j] += s * r;
+                sumSquares += s * s;
+                position += msPerSample;
+            }
+            v.position = position;
+            v.level = (float) Math.sqrt(sumSquares / bufferSize) * Math.max(l, r);
+            if (position >= length) {
+                //done, the slot is refilled from the end so look at this index again
+                release(i--);
+            }
+        }
+    }
+
+    /**
+     * @return the number of voices sounding.
+     */
+    public int getNumActive() {
+        return numActive;
+    }
+
+    public int getNumIdle() {
+        return numIdle;
+    }
+
+    /**
+     * @return the number of voices taken from a sound still playing.
+     */
+    public long getNumStolen() {
+        return numStolen;
+    }
+
+    public long getNumPlayed() {
+        return numPlayed;
+    }
+
+    /**
+     * @return the most voices sounding at once.
+     */
+    public int getPeakActive() {
+        return peakActive;
+    }
+
+    public int getNumVoices() {
+        return active.length;
+    }
+
+    @Override
+    public String toString() {
+        return "active=" + numActive + " idle=" + numIdle + " peak=" + peakActive + " played=" + numPlayed
+                + " stolen=" + numStolen;
+    }
+}
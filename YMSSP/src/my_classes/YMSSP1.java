@@ -1,21 +1,15 @@
 package my_classes;
 
-import de.sciss.net.OSCListener;
-import de.sciss.net.OSCMessage;
 import net.beadsproject.beads.core.Bead;
 import net.beadsproject.beads.core.UGen;
 import net.beadsproject.beads.data.Buffer;
 import net.beadsproject.beads.ugens.*;
 import net.happybrackets.core.HBAction;
+import net.happybrackets.core.HBReset;
 import net.happybrackets.core.control.ControlScope;
 import net.happybrackets.core.control.FloatBuddyControl;
 import net.happybrackets.device.HB;
 import net.happybrackets.device.sensors.GyroscopeListener;
-import org.apache.commons.math3.transform.DftNormalization;
-import org.apache.commons.math3.transform.FastFourierTransformer;
-import org.apache.commons.math3.transform.TransformType;
-
-import java.net.SocketAddress;
 
 
 //        clicky settings
@@ -36,7 +30,7 @@ import java.net.SocketAddress;
 //        modLevel=1
 //        bfFreq=200-250
 
-public class YMSSP1 implements HBAction {
+public class YMSSP1 implements HBAction, HBReset {
 
     enum Mode {
         DISJOINT,SOLO,BASELINE,UNITY
@@ -45,38 +39,29 @@ public class YMSSP1 implements HBAction {
     Mode mode;
 
     final int GYRO_HISTORY_LEN = 512;
-    final int INTERVAL_HISTORY_LEN = 10;
     final int PERIOD_HISTORY_LEN = 100;
     final int STEPS_BETWEEN_UPDATE = 10;
-    final int PADDING = 1;
-    final float PMIN = 100;
-    final float PMAX = 5000;
     final float DEVIATION_THRESH = 1.5f;
+    final int OTHER_DEVIATION = 0;      //peer mailbox fields
+    final int OTHER_PERIOD = 1;
+    final long CONTROL_PUBLISH_NANOS = 100000000L; //monitoring controls go out at most at 10Hz
 
     float gyroMag;          //abs mag of gyro movements
-    double[] gyroHistory;    //ring buffer storing history of gyro
-    int gyroHistoryWritePos;
-    float[] intervalHistory;
-    int intervalHistoryWritePos;
-    double[] cosineWindow;
-    double[][] fftPeriod;
+    SensorFeatureEngine features;    //ring buffer storing history of gyro, and the features derived from it
 
     float period;
 
-    float[] periodHistory;
-    int periodHistoryWritePos;
-
     Envelope level, freq, modRatio, modLevel, bfFreq;
 
     long count;
-    long updateIntervalMS;
-    float sampleFreq;
-    long previousTimeMS;
 
     int errorCount = 0;
 
     float intensity, periodStrength, deviation, theOtherPeriod = -1, theOtherDeviation, integratedPeriod;
+    PeerMailbox peerMailbox;        //the other device's latest values, waiting for the gyro thread
     FloatBuddyControl intensityControl, periodControl, periodStrengthControl, deviationControl;
+    GlobalControlPublisher controlPublisher;    //batches the controls above off the gyro thread
+    int intensityIndex, periodIndex, periodStrengthIndex, deviationIndex;
 
     HB hb;
 
@@ -93,14 +78,8 @@ public class YMSSP1 implements HBAction {
         bfFreq = new Envelope(250);
 
         //data arrays
-        gyroHistory = new double[GYRO_HISTORY_LEN];
-        intervalHistory = new float[INTERVAL_HISTORY_LEN];
-        cosineWindow = new double[GYRO_HISTORY_LEN];
-        fftPeriod = new double[2][GYRO_HISTORY_LEN];
-        for(int i = 0; i < cosineWindow.length; i++) {
-            cosineWindow[i] = Math.cos(Math.PI*(double)i/GYRO_HISTORY_LEN);
-        }
-        periodHistory = new float[PERIOD_HISTORY_LEN];
+        features = new SensorFeatureEngine(GYRO_HISTORY_LEN, PERIOD_HISTORY_LEN);
+        features.setAutocorrelationLags(2, GYRO_HISTORY_LEN / 2);
         mode = Mode.DISJOINT;
         statusReport();
 
@@ -129,49 +108,52 @@ public class YMSSP1 implements HBAction {
             }
         });
 
-        hb.addBroadcastListener(new OSCListener() {
+        //values from the other device are applied on the gyro thread, so they do not race the analysis there
+        peerMailbox = new PeerMailbox(GestureAnalyser.MAX_PEERS, 2);
+        final PeerMailbox.Consumer otherValues = new PeerMailbox.Consumer() {
             @Override
-            public void messageReceived(OSCMessage oscMessage, SocketAddress socketAddress, long l) {
-                //period strength
-                if(oscMessage.getName().equals("D_"+ hb.myIndex())) {
-                    //ignore, this is self
-                } else if(oscMessage.getName().startsWith("D_")) {
-                    //this must be the other device
-                    theOtherDeviation = (float)oscMessage.getArg(0);
-                   checkMode();
-                }
-                //period
-                else if(oscMessage.getName().equals("P_"+ hb.myIndex())) {
-                    //ignore, this is self
-                } else if(oscMessage.getName().startsWith("P_")) {
-                    //this must be the other device
-                    theOtherPeriod = (float)oscMessage.getArg(0);
+            public void peerUpdated(int device, long timeNanos, int changed, float[] values) {
+                //this must be the other device
+                if ((changed & 1 << OTHER_PERIOD) != 0) {
+                    theOtherPeriod = values[OTHER_PERIOD];
                     integratedPeriod = (theOtherPeriod + period) / 2;
                 }
-//                hb.setStatus("Got incoming message " + oscMessage.getName());
+                if ((changed & 1 << OTHER_DEVIATION) != 0) {
+                    theOtherDeviation = values[OTHER_DEVIATION];
+                    checkMode();
+                }
+            }
+        };
+        BroadcastRouter router = new BroadcastRouter(hb.myIndex());
+        router.addIndexedFloatRoute("D_", new BroadcastRouter.FloatHandler() {
+            @Override
+            public void valueReceived(int sender, float value) {
+                peerMailbox.post(sender, OTHER_DEVIATION, value, System.nanoTime());
+            }
+        });
+        router.addIndexedFloatRoute("P_", new BroadcastRouter.FloatHandler() {
+            @Override
+            public void valueReceived(int sender, float value) {
+                peerMailbox.post(sender, OTHER_PERIOD, value, System.nanoTime());
             }
         });
+        hb.addBroadcastListener(router);
 
         //gyro
         new GyroscopeListener(hb) {
             @Override
             public void sensorUpdated(float pitch, float roll, float yaw) {
+                //take in whatever the other device has sent since the last reading
+                peerMailbox.drain(otherValues);
                 //extract overall mag and put into history
                 gyroMag = (float)Math.sqrt(pitch * pitch + roll * roll + yaw * yaw);
-                gyroHistory[gyroHistoryWritePos] = gyroMag;
-                gyroHistoryWritePos = (gyroHistoryWritePos + 1) % GYRO_HISTORY_LEN;
+                features.addSample(gyroMag);
                 //recalculate new features
                 if(count % STEPS_BETWEEN_UPDATE == 0) {
                     //get autocorrelation value
-                    float[] autocorellationFeatures = findPeakPeriod();
-                    float tempPeriod = autocorellationFeatures[0];
-                    if(tempPeriod > 0 && tempPeriod < 10000) {
-                        period += (tempPeriod - period) * 0.1f;
-                        //convert period history to -1:1 range before storing
-                        float normalisedPeriod = (2 * (period - PMIN) / (PMAX - PMIN)) - 1;
-                        normalisedPeriod = (float)Math.tanh(normalisedPeriod);
-                        periodHistory[periodHistoryWritePos] = normalisedPeriod;
-                        periodHistoryWritePos = (periodHistoryWritePos + 1) % PERIOD_HISTORY_LEN;
+                    float tempPeriod = features.findPeakPeriodAutocorrelation();
+                    if(features.updatePeriod(tempPeriod, 0.1f)) {
+                        period = features.getPeriod();
                         if(theOtherPeriod > 0) {
                             integratedPeriod = (period + theOtherPeriod) / 2;
                         } else {
@@ -185,32 +167,19 @@ public class YMSSP1 implements HBAction {
                         errorCount++;
                     }
                     //check regularity
-                    float periodDeviation = calculatePeriodDeviation();
+                    float periodDeviation = features.calculatePeriodDeviation();
                     //set core variables
                     intensity = gyroMag;
-                    periodStrength = autocorellationFeatures[1];
+                    periodStrength = features.getPeriodStrength();
                     deviation = periodDeviation;
                     checkMode();
                     //set the global controls, if we're using them
-                    if(intensityControl != null) {
-                        intensityControl.setValue(intensity);
-                        periodControl.setValue(period);
-                        periodStrengthControl.setValue(periodStrength);
-                        deviationControl.setValue(deviation);
+                    if(controlPublisher != null) {
+                        controlPublisher.set(intensityIndex, intensity);
+                        controlPublisher.set(periodIndex, period);
+                        controlPublisher.set(periodStrengthIndex, periodStrength);
+                        controlPublisher.set(deviationIndex, deviation);
                     }
-                    //keep time
-                    long now = System.currentTimeMillis();
-                    float updateIntervalMSTmp = (now - previousTimeMS) / STEPS_BETWEEN_UPDATE;
-                    previousTimeMS = now;
-                    intervalHistory[intervalHistoryWritePos] = updateIntervalMSTmp;
-                    intervalHistoryWritePos = (intervalHistoryWritePos + 1) % INTERVAL_HISTORY_LEN;
-                    //compute new average
-                    updateIntervalMS = 0;
-                    for(int i = 0; i < INTERVAL_HISTORY_LEN; i++) {
-                        updateIntervalMS += intervalHistory[i];
-                    }
-                    updateIntervalMS /= INTERVAL_HISTORY_LEN;
-                    sampleFreq = 1000f / updateIntervalMS;
                     //send values
                     hb.broadcast("D_"+hb.myIndex(), deviation);
                     hb.broadcast("P_"+hb.myIndex(), period);
@@ -260,6 +229,13 @@ public class YMSSP1 implements HBAction {
         }
     }
 
+    @Override
+    public void doReset() {
+        if (controlPublisher != null) {
+            controlPublisher.stop();
+        }
+    }
+
     private void setupAudioSystem() {
         //audio system
         Gain beepGain = new Gain(1, level);
@@ -294,7 +270,7 @@ public class YMSSP1 implements HBAction {
             }
         };
         periodControl.setControlScope(ControlScope.GLOBAL);
-        periodStrengthControl = new FloatBuddyControl(this, "pstrength"+hb.myIndex(), 0, 0, 30) {
+        periodStrengthControl = new FloatBuddyControl(this, "pstrength"+hb.myIndex(), 0, 0, 1) {
             @Override
             public void valueChanged(double control_val) {
             }
@@ -306,46 +282,21 @@ public class YMSSP1 implements HBAction {
             }
         };
         deviationControl.setControlScope(ControlScope.GLOBAL);
-    }
-
-    private float calculatePeriodDeviation() {
-        float deviation = 0;
-        float average = 0;
-        for(int i = 0; i < PERIOD_HISTORY_LEN; i++) {
-            average += periodHistory[i];
-        }
-        average /= PERIOD_HISTORY_LEN;
-        for(int i = 0; i < PERIOD_HISTORY_LEN; i++) {
-            deviation += (periodHistory[i] - average) * (periodHistory[i] - average);
-        }
-        return (float)Math.sqrt(deviation);
-    }
-
-    private float[] findPeakPeriod() {
-        for(int i = 0; i < GYRO_HISTORY_LEN; i++) {
-            fftPeriod[0][i] = gyroHistory[(gyroHistoryWritePos + i) % GYRO_HISTORY_LEN] * cosineWindow[i];
-            fftPeriod[1][i] = 0;
-        }
-        FastFourierTransformer fft = new FastFourierTransformer(DftNormalization.STANDARD);
-        fft.transformInPlace(fftPeriod, DftNormalization.STANDARD, TransformType.FORWARD);
-        float peak = -Float.MAX_VALUE;
-        int bestIndex = -1;
-        float average = 0;
-        for(int i = 0; i < fftPeriod[0].length/2; i++) {
-            float val = (float) fftPeriod[0][i];
-            average += val;
-        }
-        average /= fftPeriod[0].length / 2f;
-        for(int i = PADDING; i < fftPeriod[0].length/2 - PADDING; i++) {
-            float val = (float) fftPeriod[0][i];
-            if(peak < val) {
-                peak = val;
-                bestIndex = i;
+        //each control change is its own message to every device, so send only what has moved, a batch at a time
+        final FloatBuddyControl[] controls = {intensityControl, periodControl, periodStrengthControl,
+                deviationControl};
+        controlPublisher = new GlobalControlPublisher(CONTROL_PUBLISH_NANOS, new GlobalControlPublisher.Sink() {
+            @Override
+            public void controlsPublished(int[] indexes, float[] values, int count) {
+                for (int i = 0; i < count; i++) {
+                    controls[indexes[i]].setValue(values[i]);
+                }
             }
-        }
-        float freq = bestIndex * sampleFreq / (fftPeriod[0].length/2f); // f_bin = i*f_s/N
-        float period = 1000 / freq;
-        return new float[] {period, (peak - average)};
+        });
+        intensityIndex = controlPublisher.addControl(0.05f);
+        periodIndex = controlPublisher.addControl(5);
+        periodStrengthIndex = controlPublisher.addControl(0.01f);
+        deviationIndex = controlPublisher.addControl(0.05f);      //period deviation here, thresh 1.5
+        controlPublisher.start();
     }
-
 }
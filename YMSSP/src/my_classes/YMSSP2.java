@@ -1,7 +1,5 @@
 package my_classes;
 
-import de.sciss.net.OSCListener;
-import de.sciss.net.OSCMessage;
 import net.beadsproject.beads.core.Bead;
 import net.beadsproject.beads.core.UGen;
 import net.beadsproject.beads.data.Buffer;
@@ -13,11 +11,6 @@ import net.happybrackets.core.control.FloatBuddyControl;
 import net.happybrackets.device.HB;
 import net.happybrackets.device.sensors.AccelerometerListener;
 import net.happybrackets.device.sensors.GyroscopeListener;
-import org.apache.commons.math3.transform.DftNormalization;
-import org.apache.commons.math3.transform.FastFourierTransformer;
-import org.apache.commons.math3.transform.TransformType;
-
-import java.net.SocketAddress;
 
 
 //TODO implement zero-crossing method
@@ -31,35 +24,23 @@ public class YMSSP2 implements HBAction {
     Mode mode;
 
     final int GYRO_HISTORY_LEN = 512;
-    final int INTERVAL_HISTORY_LEN = 10;
     final int PERIOD_HISTORY_LEN = 100;
     final int STEPS_BETWEEN_UPDATE = 5;
-    final int PADDING = 1;
-    final float PMIN = 100;
-    final float PMAX = 5000;
     final float DEVIATION_THRESH = 1.5f;
+    final int OTHER_DEVIATION = 0;      //peer mailbox fields
+    final int OTHER_PERIOD = 1;
 
     float gyroMag;          //abs mag of gyro movements
-    double[] gyroHistory;    //ring buffer storing history of gyro
-    int gyroHistoryWritePos;
-    float[] intervalHistory;
-    int intervalHistoryWritePos;
-    double[] cosineWindow;
-    double[][] fftPeriod;
+    SensorFeatureEngine features;    //ring buffer storing history of gyro, and the features derived from it
 
     float period;
 
-    float[] periodHistory;
-    int periodHistoryWritePos;
-
     long count;
-    long updateIntervalMS;
-    float sampleFreq;
-    long previousTimeMS;
 
     int errorCount = 0;
 
     float intensity, periodStrength, deviation, theOtherPeriod = -1, theOtherDeviation, integratedPeriod;
+    PeerMailbox peerMailbox;        //the other device's latest values, waiting for the gyro thread
     FloatBuddyControl intensityControl, periodControl, periodStrengthControl, deviationControl;
 
     //audio stuff
@@ -84,14 +65,8 @@ public class YMSSP2 implements HBAction {
         bfFreq = new Glide(10000, 500);
 
         //data arrays
-        gyroHistory = new double[GYRO_HISTORY_LEN];
-        intervalHistory = new float[INTERVAL_HISTORY_LEN];
-        cosineWindow = new double[GYRO_HISTORY_LEN];
-        fftPeriod = new double[2][GYRO_HISTORY_LEN];
-        for(int i = 0; i < cosineWindow.length; i++) {
-            cosineWindow[i] = Math.cos(Math.PI*(double)i/GYRO_HISTORY_LEN);
-        }
-        periodHistory = new float[PERIOD_HISTORY_LEN];
+        features = new SensorFeatureEngine(GYRO_HISTORY_LEN, PERIOD_HISTORY_LEN);
+        features.setAutocorrelationLags(2, GYRO_HISTORY_LEN / 2);
 
 
         setupAudioSystem();
@@ -131,33 +106,43 @@ public class YMSSP2 implements HBAction {
             }
         });
 
-        hb.addBroadcastListener(new OSCListener() {
+        //values from the other device are applied on the gyro thread, so they do not race the analysis there
+        peerMailbox = new PeerMailbox(GestureAnalyser.MAX_PEERS, 2);
+        final PeerMailbox.Consumer otherValues = new PeerMailbox.Consumer() {
             @Override
-            public void messageReceived(OSCMessage oscMessage, SocketAddress socketAddress, long l) {
-                //period strength
-                if(oscMessage.getName().equals("D_"+ hb.myIndex())) {
-                    //ignore, this is self
-                } else if(oscMessage.getName().startsWith("D_")) {
-                    //this must be the other device
-                    theOtherDeviation = (float)oscMessage.getArg(0);
-                   checkMode();
-                }
-                //period
-                else if(oscMessage.getName().equals("P_"+ hb.myIndex())) {
-                    //ignore, this is self
-                } else if(oscMessage.getName().startsWith("P_")) {
-                    //this must be the other device
-                    theOtherPeriod = (float)oscMessage.getArg(0);
+            public void peerUpdated(int device, long timeNanos, int changed, float[] values) {
+                //this must be the other device
+                if ((changed & 1 << OTHER_PERIOD) != 0) {
+                    theOtherPeriod = values[OTHER_PERIOD];
                     integratedPeriod = (theOtherPeriod + period) / 2;
                 }
-//                hb.setStatus("Got incoming message " + oscMessage.getName());
+                if ((changed & 1 << OTHER_DEVIATION) != 0) {
+                    theOtherDeviation = values[OTHER_DEVIATION];
+                    checkMode();
+                }
+            }
+        };
+        BroadcastRouter router = new BroadcastRouter(hb.myIndex());
+        router.addIndexedFloatRoute("D_", new BroadcastRouter.FloatHandler() {
+            @Override
+            public void valueReceived(int sender, float value) {
+                peerMailbox.post(sender, OTHER_DEVIATION, value, System.nanoTime());
+            }
+        });
+        router.addIndexedFloatRoute("P_", new BroadcastRouter.FloatHandler() {
+            @Override
+            public void valueReceived(int sender, float value) {
+                peerMailbox.post(sender, OTHER_PERIOD, value, System.nanoTime());
             }
         });
+        hb.addBroadcastListener(router);
 
         //gyro
         new GyroscopeListener(hb) {
             @Override
             public void sensorUpdated(float x, float y, float z) {
+                //take in whatever the other device has sent since the last reading
+                peerMailbox.drain(otherValues);
 
 //        new AccelerometerListener(hb) {
 //            @Override
@@ -165,21 +150,14 @@ public class YMSSP2 implements HBAction {
                 //extract overall mag and put into history
                 gyroMag = (float)Math.sqrt(x * x + y * y + z * z);
 
-                gyroHistory[gyroHistoryWritePos] = gyroMag;
-                gyroHistoryWritePos = (gyroHistoryWritePos + 1) % GYRO_HISTORY_LEN;
+                features.addSample(gyroMag);
                 //recalculate new features
                 if(count % STEPS_BETWEEN_UPDATE == 0) {
                     //get autocorrelation value
-                    float[] autocorellationFeatures = findPeakPeriod();
-                    float tempPeriod = autocorellationFeatures[0];
+                    float tempPeriod = features.findPeakPeriodAutocorrelation();
                     System.out.println(tempPeriod);
-                    if(tempPeriod > 0 && tempPeriod < 10000) {
-                        period += (tempPeriod - period) * 0.3f;
-                        //convert period history to -1:1 range before storing
-                        float normalisedPeriod = (2 * (period - PMIN) / (PMAX - PMIN)) - 1;
-                        normalisedPeriod = (float)Math.tanh(normalisedPeriod);
-                        periodHistory[periodHistoryWritePos] = normalisedPeriod;
-                        periodHistoryWritePos = (periodHistoryWritePos + 1) % PERIOD_HISTORY_LEN;
+                    if(features.updatePeriod(tempPeriod, 0.3f)) {
+                        period = features.getPeriod();
                         if(theOtherPeriod > 0 && mode == Mode.UNITY) {
                             integratedPeriod = (period + theOtherPeriod) * 0.5f;
                         } else {
@@ -193,10 +171,10 @@ public class YMSSP2 implements HBAction {
                         errorCount++;
                     }
                     //check regularity
-                    float periodDeviation = calculatePeriodDeviation();
+                    float periodDeviation = features.calculatePeriodDeviation();
                     //set core variables
                     intensity = gyroMag;
-                    periodStrength = autocorellationFeatures[1];
+                    periodStrength = features.getPeriodStrength();
                     deviation = periodDeviation;
                     checkMode();
                     //set the global controls, if we're using them
@@ -206,19 +184,6 @@ public class YMSSP2 implements HBAction {
                         periodStrengthControl.setValue(periodStrength);
                         deviationControl.setValue(deviation);
                     }
-                    //keep time
-                    long now = System.currentTimeMillis();
-                    float updateIntervalMSTmp = (now - previousTimeMS) / STEPS_BETWEEN_UPDATE;
-                    previousTimeMS = now;
-                    intervalHistory[intervalHistoryWritePos] = updateIntervalMSTmp;
-                    intervalHistoryWritePos = (intervalHistoryWritePos + 1) % INTERVAL_HISTORY_LEN;
-                    //compute new average
-                    updateIntervalMS = 0;
-                    for(int i = 0; i < INTERVAL_HISTORY_LEN; i++) {
-                        updateIntervalMS += intervalHistory[i];
-                    }
-                    updateIntervalMS /= INTERVAL_HISTORY_LEN;
-                    sampleFreq = 1000f / updateIntervalMS;
                     //send values
                     hb.broadcast("D_"+hb.myIndex(), deviation);
                     hb.broadcast("P_"+hb.myIndex(), period);
@@ -363,7 +328,7 @@ public class YMSSP2 implements HBAction {
             }
         };
         periodControl.setControlScope(ControlScope.GLOBAL);
-        periodStrengthControl = new FloatBuddyControl(this, "pstrength"+hb.myIndex(), 0, 0, 30) {
+        periodStrengthControl = new FloatBuddyControl(this, "pstrength"+hb.myIndex(), 0, 0, 1) {
             @Override
             public void valueChanged(double control_val) {
             }
@@ -376,45 +341,4 @@ public class YMSSP2 implements HBAction {
         };
         deviationControl.setControlScope(ControlScope.GLOBAL);
     }
-
-    private float calculatePeriodDeviation() {
-        float deviation = 0;
-        float average = 0;
-        for(int i = 0; i < PERIOD_HISTORY_LEN; i++) {
-            average += periodHistory[i];
-        }
-        average /= PERIOD_HISTORY_LEN;
-        for(int i = 0; i < PERIOD_HISTORY_LEN; i++) {
-            deviation += (periodHistory[i] - average) * (periodHistory[i] - average);
-        }
-        return (float)Math.sqrt(deviation);
-    }
-
-    private float[] findPeakPeriod() {
-        for(int i = 0; i < GYRO_HISTORY_LEN; i++) {
-            fftPeriod[0][i] = gyroHistory[(gyroHistoryWritePos + i) % GYRO_HISTORY_LEN] * cosineWindow[i];
-            fftPeriod[1][i] = 0;
-        }
-        FastFourierTransformer fft = new FastFourierTransformer(DftNormalization.STANDARD);
-        fft.transformInPlace(fftPeriod, DftNormalization.STANDARD, TransformType.FORWARD);
-        float peak = -Float.MAX_VALUE;
-        int bestIndex = -1;
-        float average = 0;
-        for(int i = 0; i < fftPeriod[0].length/2; i++) {
-            float val = (float) fftPeriod[0][i];
-            average += val;
-        }
-        average /= fftPeriod[0].length / 2f;
-        for(int i = PADDING; i < fftPeriod[0].length/2 - PADDING; i++) {
-            float val = (float) fftPeriod[0][i];
-            if(peak < val) {
-                peak = val;
-                bestIndex = i;
-            }
-        }
-        float freq = bestIndex * sampleFreq / (fftPeriod[0].length/2f); // f_bin = i*f_s/N
-        float period = 1000 / freq;
-        return new float[] {period, (peak - average)};
-    }
-
 }
@@ -1,9 +1,7 @@
 package my_classes;
 
-import de.sciss.net.OSCListener;
-import de.sciss.net.OSCMessage;
-import infodynamics.measures.continuous.gaussian.EntropyCalculatorGaussian;
 import infodynamics.measures.discrete.EntropyRateCalculatorDiscrete;
+import my_classes.GestureAnalyser.Mode;
 import net.beadsproject.beads.core.Bead;
 import net.beadsproject.beads.core.UGen;
 import net.beadsproject.beads.data.Buffer;
@@ -11,64 +9,42 @@ import net.beadsproject.beads.data.SampleManager;
 import net.beadsproject.beads.events.KillTrigger;
 import net.beadsproject.beads.ugens.*;
 import net.happybrackets.core.HBAction;
+import net.happybrackets.core.HBReset;
 import net.happybrackets.core.control.ControlScope;
 import net.happybrackets.core.control.FloatBuddyControl;
 import net.happybrackets.device.HB;
 import net.happybrackets.device.sensors.AccelerometerListener;
 import net.happybrackets.device.sensors.GyroscopeListener;
-import org.apache.commons.math3.transform.DftNormalization;
-import org.apache.commons.math3.transform.FastFourierTransformer;
-import org.apache.commons.math3.transform.TransformType;
 
 import java.lang.invoke.MethodHandles;
-import java.net.SocketAddress;
-import java.util.ArrayList;
-import java.util.Arrays;
 
 
-public class YMSSP3 implements HBAction {
+public class YMSSP3 implements HBAction, HBReset {
 
-    enum Mode {
-        DISJOINT, SOLO, BASELINE, UNITY
-    }
-
-    Mode mode;
-
-    final double[] storedIncomingSensorData = new double[6];
+    Mode mode;                      //only touched on the analysis thread, other threads read worker.getSnapshot()
 
-    final int SENSOR_HISTORY_LEN = 128;           //100 x 20ms = 2s possible interval range
-    final int INTERVAL_HISTORY_LEN = 10;
-    final int PERIOD_HISTORY_LEN = 10;
-    final int STEPS_BETWEEN_UPDATE = 5;
-    final int PADDING = 1;
-    final float PMIN = 100;
-    final float PMAX = 5000;
+    final int RING_CAPACITY = 256;                //about 5s of readings at 50Hz
+    final float PERIOD_EPSILON = 10;              //ms of period change worth broadcasting
+    final float DEVIATION_EPSILON = 0.05f;        //threshold crossings are always sent
+    final long HEARTBEAT_NANOS = 1000000000L;     //broadcast at least this often, well inside the peers' timeout
+    final long MIN_BROADCAST_NANOS = 50000000L;   //and no more often than this
+    final long CONTROL_PUBLISH_NANOS = 100000000L; //monitoring controls go out at most at 10Hz
     final float DEVIATION_THRESH = 0.2f; //300000f < this is the thresh if using the spectral entropy
 
-    float sensorMagnitude;          //abs mag of gyro movements
-    double[] sensorHistory;    //ring buffer storing history of gyro
-    int sensorHistoryWritePos;
-    float[] intervalHistory;
-    int intervalHistoryWritePos;
-    double[] cosineWindow;
-    double[][] fftPeriod;
-    double[] sortedHistory;
+    GestureAnalyser analyser;       //period, deviation and mode logic
+    GestureAnalysisWorker worker;   //runs the analyser off the sensor thread
+    final PeerStateMessage outgoing = new PeerStateMessage();  //only used on the analysis thread
+    BroadcastThrottle throttle;     //decides which updates are worth broadcasting, on the analysis thread
+    BroadcastRouter router;         //dispatches broadcasts from the other device
+    BeatPhaseLock phaseLock;        //pulls our beats into phase with the others' in UNITY
     int[] sortedHistoryInt;
 
-    float period;
-
-    float[] periodHistory;
-    int periodHistoryWritePos;
-
-    long count;
-    long updateIntervalMS;
-    float sampleFreq;
-    long previousTimeMS;
-
     int errorCount = 0;
 
-    float intensity, periodStrength, deviation, theOtherPeriod = -1, theOtherDeviation, integratedPeriod;
+    float intensity, periodStrength, deviation, period;
     FloatBuddyControl intensityControl, periodControl, periodStrengthControl, deviationControl;
+    GlobalControlPublisher controlPublisher;    //batches the controls above off the analysis thread
+    int intensityIndex, periodIndex, periodStrengthIndex, deviationIndex;
 
     //audio stuff
     Envelope level, rate;
@@ -79,7 +55,6 @@ public class YMSSP3 implements HBAction {
     float irregLen = (float) SampleManager.sample(irregularBell).getLength();
     float maxLevel = 5;
 
-    EntropyCalculatorGaussian calculator;
     EntropyRateCalculatorDiscrete calculatorDiscrete;
 
     HB hb;
@@ -95,18 +70,54 @@ public class YMSSP3 implements HBAction {
         bfFreq = new Glide(10000, 500);
 
         //data arrays
-        sensorHistory = new double[SENSOR_HISTORY_LEN];
-        intervalHistory = new float[INTERVAL_HISTORY_LEN];
-        cosineWindow = new double[SENSOR_HISTORY_LEN];
-        fftPeriod = new double[2][SENSOR_HISTORY_LEN];
-        for (int i = 0; i < cosineWindow.length; i++) {
-            cosineWindow[i] = Math.cos(Math.PI * (double) i / SENSOR_HISTORY_LEN);
-        }
-        periodHistory = new float[PERIOD_HISTORY_LEN];
+        analyser = new GestureAnalyser(Mode.UNITY, DEVIATION_THRESH) {
+            @Override
+            public void modeChanged(Mode newMode) {
+                modeUpdated();
+                mode = newMode;
+            }
+        };
+        phaseLock = new BeatPhaseLock(hb.myIndex());
+        //change on the same thresholds the others judge us by
+        ModeStateMachine modes = analyser.getModeMachine();
+        throttle = new BroadcastThrottle(PERIOD_EPSILON, DEVIATION_EPSILON, modes.getEnterThresh(),
+                modes.getExitThresh(), HEARTBEAT_NANOS, MIN_BROADCAST_NANOS);
+        worker = new GestureAnalysisWorker(analyser, RING_CAPACITY) {
+            @Override
+            public void featuresUpdated(FeatureSnapshot snapshot) {
+                try {
+                    period = snapshot.period;
+                    deviation = snapshot.deviation;
+                    UGen clockInterval = hb.clock.getIntervalUGen();
+                    if (clockInterval != null && period > 0 && period < 100000) { //looking out for bad numbers
+                        clockInterval.setValue(snapshot.integratedPeriod - phaseLock.getCorrection());
+                    } else {
+                        errorCount++;
+                    }
+                    //set core variables
+                    intensity = snapshot.sensorMagnitude;
+                    periodStrength = snapshot.periodStrength;
+                    //set the global controls, if we're using them
+                    if (controlPublisher != null) {
+                        controlPublisher.set(intensityIndex, intensity);
+                        controlPublisher.set(periodIndex, period);
+                        controlPublisher.set(periodStrengthIndex, periodStrength);
+                        controlPublisher.set(deviationIndex, deviation);
+                    }
+                    //send values
+                    if (throttle.shouldSend(snapshot, System.nanoTime())) {
+                        hb.broadcast(PeerStateMessage.ADDRESS,
+                                outgoing.encode(hb.myIndex(), hb.getSynchTime(), snapshot));
+                    }
+                    //housekeeping state and status
+                    statusReport();
+                } catch (Exception e) {
+                    hb.setStatus("Exception: " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+        };
 
-        //entropy calcs
-        calculator = new EntropyCalculatorGaussian();
-        calculator.initialise();
 //        calculatorDiscrete = new EntropyRateCalculatorDiscrete();   //TODO what here?
 //        calculatorDiscrete.initialise();
 
@@ -120,7 +131,20 @@ public class YMSSP3 implements HBAction {
             @Override
             protected void messageReceived(Bead message) {
                 if (hb.clock.isBeat()) {
-                    switch (mode) {
+                    FeatureSnapshot snapshot = worker.getSnapshot();
+                    //phase lock in UNITY, where we share a tempo
+                    boolean locking = snapshot.mode == Mode.UNITY;
+                    long beatTime = hb.getSynchTime();
+                    float interval = phaseLock.beat(beatTime, snapshot.integratedPeriod, locking);
+                    UGen clockInterval = hb.clock.getIntervalUGen();
+                    if (clockInterval != null && snapshot.period > 0 && snapshot.period < 100000) {
+                        clockInterval.setValue(interval);
+                    }
+                    if (locking) {
+                        //the others only use beats from devices that are locking, so send none otherwise
+                        hb.broadcast(BeatPhaseLock.ADDRESS, phaseLock.encodeBeat(beatTime, true));
+                    }
+                    switch (snapshot.mode) {
                         case SOLO:
 //                            level.clear();
 //                            level.addSegment(maxLevel, 50);
@@ -149,37 +173,26 @@ public class YMSSP3 implements HBAction {
                 }
             }
         });
-        hb.addBroadcastListener(new OSCListener() {
-            int count = 0;
+        router = new BroadcastRouter(hb.myIndex());
+        router.addPeerStateRoute(new BroadcastRouter.PeerStateHandler() {
             @Override
-            public void messageReceived(OSCMessage oscMessage, SocketAddress socketAddress, long l) {
-                //period strength
-                if (oscMessage.getName().equals("D_" + hb.myIndex())) {
-                    //ignore, this is self
-                } else if (oscMessage.getName().startsWith("D_")) {
-                    //this must be the other device
-                    theOtherDeviation = (float) oscMessage.getArg(0);
-                    checkMode();
-//                    System.out.println("D" + count++);
-                }
-                //period
-                else if (oscMessage.getName().equals("P_" + hb.myIndex())) {
-                    //ignore, this is self
-                } else if (oscMessage.getName().startsWith("P_")) {
-                    //this must be the other device
-                    theOtherPeriod = (float) oscMessage.getArg(0);
-                    integratedPeriod = (theOtherPeriod + period) / 2;
-//                    System.out.println("P" + count++);
-                }
+            public void peerStateReceived(PeerStateMessage message) {
+                //one of the other devices
+                worker.peerStateReceived(message.getDeviceId(), message.getDeviation(), message.getPeriod());
             }
         });
+        router.addBlobRoute(BeatPhaseLock.ADDRESS, new BroadcastRouter.BlobHandler() {
+            @Override
+            public void blobReceived(byte[] data) {
+                phaseLock.peerBeatReceived(data);
+            }
+        });
+        hb.addBroadcastListener(router);
         //accel
         new AccelerometerListener(hb) {
             @Override
             public void sensorUpdated(float x, float y, float z) {
-                storedIncomingSensorData[0] = x;
-                storedIncomingSensorData[1] = y;
-                storedIncomingSensorData[2] = z;
+                worker.accelUpdated(System.nanoTime(), x, y, z);
             }
 
         };
@@ -187,86 +200,8 @@ public class YMSSP3 implements HBAction {
         new GyroscopeListener(hb) {
             @Override
             public void sensorUpdated(float x, float y, float z) {
-                storedIncomingSensorData[3] = x;
-                storedIncomingSensorData[4] = y;
-                storedIncomingSensorData[5] = z;
-//                System.out.println(deviation);
-                try {
-                    //extract overall mag and put into history
-                    sensorMagnitude = (float) Math.sqrt(x * x + y * y + z * z);
-//                    sensorMagnitude = 0;
-//                    for (int i = 0; i < storedIncomingSensorData.length; i++) {
-//                        sensorMagnitude += storedIncomingSensorData[i] * storedIncomingSensorData[i];
-//                    }
-//                    sensorMagnitude = (float) Math.sqrt(sensorMagnitude);
-                    sensorHistory[sensorHistoryWritePos] = sensorMagnitude;
-                    sensorHistoryWritePos = (sensorHistoryWritePos + 1) % SENSOR_HISTORY_LEN;
-                    //recalculate new features
-                    if (count % STEPS_BETWEEN_UPDATE == 0) {
-                        //get autocorrelation value
-                        float[] autocorellationFeatures = findPeakPeriodXCross();
-                        float tempPeriod = autocorellationFeatures[0];
-
-                        if (tempPeriod > 0 && tempPeriod < 10000) {
-                            period += (tempPeriod - period) * 0.2f;
-                            //convert period history to -1:1 range before storing
-                            float normalisedPeriod = (2 * (period - PMIN) / (PMAX - PMIN)) - 1;
-                            normalisedPeriod = (float) Math.tanh(normalisedPeriod);
-                            periodHistory[periodHistoryWritePos] = normalisedPeriod;
-                            periodHistoryWritePos = (periodHistoryWritePos + 1) % PERIOD_HISTORY_LEN;
-                            if (theOtherPeriod > 0 && mode == Mode.UNITY) {
-                                integratedPeriod = (period + theOtherPeriod) * 0.5f;
-                            } else if(theOtherPeriod > 0 && mode == Mode.SOLO) {
-                                integratedPeriod = theOtherPeriod;
-                            } else {
-                                integratedPeriod = period;
-                            }
-                        }
-                        UGen clockInterval = hb.clock.getIntervalUGen();
-                        if (clockInterval != null && period > 0 && period < 100000) { //looking out for bad numbers
-                            clockInterval.setValue(integratedPeriod * 1f);
-                        } else {
-                            errorCount++;
-                        }
-                        //check regularity
-                        float periodDeviation = getSpectralData()[1];
-                        //set core variables
-                        intensity = sensorMagnitude;
-                        periodStrength = autocorellationFeatures[1];
-                        deviation = periodDeviation;
-                        //set the global controls, if we're using them
-                        if (intensityControl != null) {
-                            intensityControl.setValue(intensity);
-                            periodControl.setValue(period);
-                            periodStrengthControl.setValue(periodStrength);
-                            deviationControl.setValue(deviation);
-                        }
-                        //keep time
-                        long now = System.currentTimeMillis();
-                        float updateIntervalMSTmp = (now - previousTimeMS) / STEPS_BETWEEN_UPDATE;
-                        previousTimeMS = now;
-                        intervalHistory[intervalHistoryWritePos] = updateIntervalMSTmp;
-                        intervalHistoryWritePos = (intervalHistoryWritePos + 1) % INTERVAL_HISTORY_LEN;
-                        //compute new average
-                        updateIntervalMS = 0;
-                        for (int i = 0; i < INTERVAL_HISTORY_LEN; i++) {
-                            updateIntervalMS += intervalHistory[i];
-                        }
-                        updateIntervalMS /= INTERVAL_HISTORY_LEN;
-                        sampleFreq = 1000f / updateIntervalMS;
-                        //send values
-                        hb.broadcast("D_" + hb.myIndex(), deviation);
-                        hb.broadcast("P_" + hb.myIndex(), period);
-                        //housekeeping state and status
-                        checkMode();
-                        statusReport();
-                    }
-                    //keep time
-                    count++;
-                } catch (Exception e) {
-                    hb.setStatus("Exception: " + e.getMessage());
-                    e.printStackTrace();
-                }
+                //hand over to the analysis thread, which updates features and mode
+                worker.gyroUpdated(System.nanoTime(), x, y, z);
             }
         };
 
@@ -275,39 +210,24 @@ public class YMSSP3 implements HBAction {
             @Override
             public void sensorUpdated(float x, float y, float z) {
                 float intensity = (float) Math.sqrt(x * x + y * y + z * z);
+                Mode currentMode = worker.getSnapshot().mode;
                 //now do some direct manipulation
-                if (mode == Mode.DISJOINT || mode == Mode.SOLO) {
+                if (currentMode == Mode.DISJOINT || currentMode == Mode.SOLO) {
                     level.clear();
                     level.addSegment(y * maxLevel, 50);
                     gsp.getGrainIntervalUGen().setValue(Math.abs(x) * Math.abs(x) * 50 + 30);
                     gsp.getRandomnessUGen().setValue(Math.abs(y) * Math.abs(y) * 0.001f);
                     gsp.getRateUGen().setValue(Math.abs(z) * Math.abs(z) * 0.01f);
-                } else if (mode == Mode.BASELINE) {
+                } else if (currentMode == Mode.BASELINE) {
 //                    gsp.getPitchUGen().setValue(x * 0.1f);
                     gsp.getGrainIntervalUGen().setValue(Math.abs(x) * 120 + 30);
-                } else if (mode == Mode.UNITY) {
+                } else if (currentMode == Mode.UNITY) {
                     bfFreq.setValue(Math.min(Math.abs(x), 1) * 5000 + 200);
                 }
 
             }
         };
-    }
-
-    private void checkMode() {
-        Mode newMode = null;
-        if (theOtherDeviation >= DEVIATION_THRESH && deviation >= DEVIATION_THRESH) {
-            newMode = Mode.DISJOINT;
-        } else if (theOtherDeviation >= DEVIATION_THRESH && deviation < DEVIATION_THRESH) {
-            newMode = Mode.BASELINE;
-        } else if (theOtherDeviation < DEVIATION_THRESH && deviation >= DEVIATION_THRESH) {
-            newMode = Mode.SOLO;
-        } else if (theOtherDeviation < DEVIATION_THRESH && deviation < DEVIATION_THRESH) {
-            newMode = Mode.UNITY;
-        }
-        if (newMode != mode) {
-            modeUpdated();
-            mode = newMode;
-        }
+        worker.start();
     }
 
     private void sawBeep() {
@@ -321,7 +241,15 @@ public class YMSSP3 implements HBAction {
 
     private void statusReport() {
 //        hb.setStatus("Mode=" + mode.toString() + ": period=" + period + ": otherPeriod=" + theOtherPeriod);
-        hb.setStatus("Mode=" + mode.toString() + ", this=" + (deviation <= DEVIATION_THRESH) + ", other=" + (theOtherDeviation <= DEVIATION_THRESH));
+        router.updateRates(System.nanoTime());
+        //regular or not as the mode machine sees it, with its enter and exit thresholds
+        ModeStateMachine machine = analyser.getModeMachine();
+        hb.setStatus("Mode=" + mode.toString() + ", this=" + !machine.isIrregular() + ", other=" + !machine.isOtherIrregular()
+                + ", thresh=" + machine.getEnterThresh() + "/" + machine.getExitThresh()
+                + ", " + router.getRateReport()
+                + ", sent=" + throttle.getNumSent() + "/" + throttle.getNumChecked()
+                + ", modes=" + machine.getNumTransitions()
+                + ", phase=" + phaseLock.getPhaseError() + (phaseLock.isLocked() ? " locked" : ""));
     }
 
     private void modeUpdated() {
@@ -373,6 +301,16 @@ public class YMSSP3 implements HBAction {
 //        }
     }
 
+    @Override
+    public void doReset() {
+        if (worker != null) {
+            worker.stop();
+        }
+        if (controlPublisher != null) {
+            controlPublisher.stop();
+        }
+    }
+
     private void setupAudioSystem() {
         //audio system
         gsp = new GranularSamplePlayer(SampleManager.sample(irregularBell));
@@ -407,7 +345,7 @@ public class YMSSP3 implements HBAction {
             }
         };
         periodControl.setControlScope(ControlScope.GLOBAL);
-        periodStrengthControl = new FloatBuddyControl(this, "pstrength" + hb.myIndex(), 0, 0, 30) {
+        periodStrengthControl = new FloatBuddyControl(this, "pstrength" + hb.myIndex(), 0, 0, 1) {
             @Override
             public void valueChanged(double control_val) {
             }
@@ -419,6 +357,22 @@ public class YMSSP3 implements HBAction {
             }
         };
         deviationControl.setControlScope(ControlScope.GLOBAL);
+        //each control change is its own message to every device, so send only what has moved, a batch at a time
+        final FloatBuddyControl[] controls = {intensityControl, periodControl, periodStrengthControl,
+                deviationControl};
+        controlPublisher = new GlobalControlPublisher(CONTROL_PUBLISH_NANOS, new GlobalControlPublisher.Sink() {
+            @Override
+            public void controlsPublished(int[] indexes, float[] values, int count) {
+                for (int i = 0; i < count; i++) {
+                    controls[indexes[i]].setValue(values[i]);
+                }
+            }
+        });
+        intensityIndex = controlPublisher.addControl(0.05f);
+        periodIndex = controlPublisher.addControl(5);
+        periodStrengthIndex = controlPublisher.addControl(0.01f);
+        deviationIndex = controlPublisher.addControl(0.005f);
+        controlPublisher.start();
     }
 
 //    private float calculatePeriodDeviation() {
@@ -436,78 +390,6 @@ public class YMSSP3 implements HBAction {
 //        return deviation;
 //    }
 
-    private float[] findPeakPeriodXCross() {
-        float theperiod = 0;
-        float theconfidence = 0;
-        //get average
-        float average = 0;
-        for (int i = 0; i < SENSOR_HISTORY_LEN; i++) {
-            double val = sensorHistory[(sensorHistoryWritePos - 1 - i + SENSOR_HISTORY_LEN) % SENSOR_HISTORY_LEN];
-            average += val;
-        }
-        average /= SENSOR_HISTORY_LEN;
-        //determine all the zerocross times
-        ArrayList<Integer> crosstimes = new ArrayList<>();      //TODO inefficient
-        boolean up = (sensorHistory[(sensorHistoryWritePos - 1 + SENSOR_HISTORY_LEN) % SENSOR_HISTORY_LEN] - average) > 0;
-        boolean firstUp = true;
-        int lastUptime = 0;
-        for (int i = 1; i < SENSOR_HISTORY_LEN; i++) {
-            boolean newUp = (sensorHistory[(sensorHistoryWritePos - i + SENSOR_HISTORY_LEN) % SENSOR_HISTORY_LEN] - average) > 0;
-            if (newUp && !up) {
-                //it's a zero cross
-                if (firstUp) {
-                    firstUp = false;
-                } else {
-                    int time = i - lastUptime;
-                    crosstimes.add(time);
-                }
-                lastUptime = i;
-            }
-            up = newUp;
-        }
-        //determine the average cross time, ignoring the outliers
-        Integer[] sortedCrosstimes = crosstimes.toArray(new Integer[0]);        //TODO inefficient
-        Arrays.sort(sortedCrosstimes);
-        float averageCrosstime = 0;
-        //average approach
-        if (sortedCrosstimes.length > 6) {
-            for (int i = 3; i < sortedCrosstimes.length - 3; i++) {
-                averageCrosstime += sortedCrosstimes[i];
-            }
-            averageCrosstime /= (sortedCrosstimes.length - 6);
-        } else {
-            //fall back to median approach
-            if (sortedCrosstimes.length > 0) {
-                averageCrosstime = sortedCrosstimes[3 * sortedCrosstimes.length / 4];
-            }
-        }
-        theperiod = averageCrosstime * updateIntervalMS;
-        return new float[]{theperiod, theconfidence};
-    }
-
-
-    private float differentialEntropy() {
-        int len = SENSOR_HISTORY_LEN;
-        if(sortedHistory == null || sortedHistory.length != len) {
-            sortedHistory = new double[len];
-        }
-        //get entropy from mag data
-        for (int i = 0; i < sortedHistory.length; i++) {
-            double val = sensorHistory[(sensorHistoryWritePos - i + SENSOR_HISTORY_LEN) % SENSOR_HISTORY_LEN];
-//            double val = periodHistory[(periodHistoryWritePos - i + PERIOD_HISTORY_LEN) % PERIOD_HISTORY_LEN];
-            sortedHistory[sortedHistory.length - i - 1] = val;
-        }
-        double entropy = 0;
-
-        try {
-            calculator.setObservations(sortedHistory);
-            entropy = calculator.computeAverageLocalOfObservations();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return (float) entropy;
-    }
-
 //    private float discreteEntropy() {
 //        int len = SENSOR_HISTORY_LEN;
 //        if(sortedHistoryInt == null || sortedHistoryInt.length != len) {
@@ -548,46 +430,4 @@ public class YMSSP3 implements HBAction {
             e.printStackTrace();
         }
     }
-
-
-    /**
-    @return float array with entropy and flatness.
-     */
-    private float[] getSpectralData() {
-
-        for(int i = 0; i < SENSOR_HISTORY_LEN; i++) {
-            fftPeriod[0][i] = sensorHistory[(sensorHistoryWritePos - 1 - i + SENSOR_HISTORY_LEN) % SENSOR_HISTORY_LEN] * cosineWindow[i];
-            fftPeriod[1][i] = 0;
-        }
-        FastFourierTransformer fft = new FastFourierTransformer(DftNormalization.STANDARD);
-        fft.transformInPlace(fftPeriod, DftNormalization.STANDARD, TransformType.FORWARD);
-        //FFT transform complete, results are in fftPeriod[0].
-
-        int halfLen = SENSOR_HISTORY_LEN / 2;
-
-        //get power spectrum
-        for(int i = 0; i < halfLen; i++) {
-            fftPeriod[0][i] = fftPeriod[0][i] * fftPeriod[0][i] + fftPeriod[1][i] * fftPeriod[1][i];
-        }
-
-        double geomMean = 1;
-        double arithMean = 0;
-        //get spectral flatness over power spectrum
-        for(int i = 0; i < halfLen; i++) {
-            arithMean += fftPeriod[0][i];
-            geomMean *= fftPeriod[0][i];
-        }
-        arithMean /= halfLen;
-        geomMean = Math.pow(geomMean, 1. / halfLen);
-        float flatness = (float)(geomMean / arithMean);
-
-            //calc entropy over power spectrum
-        float entropy = 0;
-        for(int i = 0; i < halfLen; i++) {
-            entropy += fftPeriod[0][i] * Math.log(fftPeriod[0][i]);
-        }
-
-        return new float[]{entropy, flatness};
-    }
-
 }